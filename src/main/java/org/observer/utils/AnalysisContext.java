@@ -0,0 +1,329 @@
+package org.observer.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import jdk.internal.org.objectweb.asm.tree.ClassNode;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+
+/**
+ * 分析上下文：持有一次分析(一个 lib 目录)所需的全部注册表与缓存
+ * <p>
+ * 各 Util 的静态方法通过 {@link #current()} 获取当前线程绑定的上下文，未绑定时使用默认上下文，
+ * 因此原有静态 API 保持不变；需要在同一 JVM 中并行分析多个 lib 目录时，为每个目录创建独立的上下文：
+ * <pre>
+ * try (AnalysisContext context = new AnalysisContext()) {
+ *     context.call(() -> {
+ *         DependencyUtil.resolveDir(dir);
+ *         return SearchUtil.getBTUpgradeCaller(call);
+ *     });
+ * }
+ * </pre>
+ */
+public class AnalysisContext implements AutoCloseable {
+    private final static AnalysisContext defaultContext = new AnalysisContext();
+    private final static ThreadLocal<AnalysisContext> currentContext = new ThreadLocal<>();
+
+    /* ====== DependencyUtil ====== */
+    /**
+     * dependency(groupId.artifactId) -> file 映射
+     * artifactId 被哪些文件所依赖
+     */
+    final Map<String, Set<String>> artifactIdGroupFileMap = new ConcurrentHashMap<>();
+    // jar 依赖哪些 artifactId
+    final Map<String, Set<String>> fileArtifactIdGroupMap = new ConcurrentHashMap<>();
+    // 不包含 pom.xml 文件的 jar 包，无法确认哪些包依赖该文件
+    // 包含无法正确解析出 artifactId 的 jar 包
+    final Set<String> missArtifactIdFiles = ConcurrentHashMap.newKeySet();
+    // 缓存缺失 pom.xml 的 jar
+    final Set<String> missPomFiles = ConcurrentHashMap.newKeySet();
+    // packageName(和 groupId.artifactId 可能一致) -> file 映射
+    final Map<String, Set<String>> pkgNameFileMap = new ConcurrentHashMap<>();
+    // file -> groupId.artifactId 映射
+    final Map<String, String> fileArtifactIdMap = new ConcurrentHashMap<>();
+    // file 包含哪些 packageName
+    final Map<String, Set<String>> filePkgNameMap = new ConcurrentHashMap<>();
+    // 缓存加载失败的 JarFile
+    final Set<String> loadFailedJarFiles = ConcurrentHashMap.newKeySet();
+    // 记录无法加载的类
+    final Set<String> loadPathFailedClasses = ConcurrentHashMap.newKeySet();
+    // className -> 方法解析表(fName#fDesc -> 最顶层声明类型)，按表项数量限制容量
+    final Cache<String, Map<String, ClassSummary>> methodTables = Caffeine.newBuilder()
+            .maximumWeight(2000000)
+            .weigher((String key, Map<String, ClassSummary> value) -> value.size() + 1)
+            .build();
+    // jar 反向依赖图及闭包，首次使用时构建
+    volatile DependencyGraph dependencyGraph = null;
+    // 常量池类引用索引，基于 dependencyGraph 的编号，首次使用时构建
+    volatile JarRefIndex jarRefIndex = null;
+    // jar 内容摘要 -> 首个解析的文件
+    final Map<String, String> digestFileMap = new ConcurrentHashMap<>();
+    // 内容重复的 jar -> 首个解析的同内容文件，重复 jar 不进入注册表
+    final Map<String, String> duplicateFileMap = new ConcurrentHashMap<>();
+    // 存储 lib 中 /rt.jar jdk 文件，后续用于排除
+    volatile String jdkFilePath = null;
+    // 缓存 class -> 所在文件位置 映射
+    final LoadingCache<String, String> clsNameFileMap;
+    final AtomicInteger loadedJarCount = new AtomicInteger();
+
+    // file -> 单次遍历 jar 的结果，按 class 数量限制容量
+    final Cache<String, JarScan> jarScanCache = Caffeine.newBuilder()
+            .maximumWeight(1000000)
+            .weigher((String key, JarScan value) -> value.classEntries.size() + 1)
+            .build();
+
+    /* ====== ClassNodeUtil ====== */
+    final Set<String> overMaxSizeJars = ConcurrentHashMap.newKeySet();
+    // 热层：file -> (className -> ClassNode)
+    final Map<String, LoadingCache<String, ClassNode>> fileNodesMap;
+    // file -> (包目录 a/b/ -> class entry)，首次读取 jar 时建立
+    final Map<String, Map<String, List<ZipEntry>>> filePkgEntriesMap = new ConcurrentHashMap<>();
+    // 冷层：file|className -> class 字节码
+    final ClassBytesStore classBytesStore = new ClassBytesStore();
+    // 缓存加载失败的 Class
+    final Set<String> loadFailedClasses = ConcurrentHashMap.newKeySet();
+    // 缓存加载 ClassNode 失败的 JarFile
+    final Set<String> loadFailedClassJarFiles = ConcurrentHashMap.newKeySet();
+    // className -> 类摘要(不含方法体)，用于继承关系判断
+    final Map<String, ClassSummary> classSummaries = new ConcurrentHashMap<>();
+
+    // CHA 派发表，开启 -Dcha 时首次使用构建
+    volatile DispatchTable dispatchTable = null;
+
+    /* ====== PrefetchUtil ====== */
+    // file -> 尚未被搜索线程使用的预取任务
+    final Map<String, PrefetchUtil.Task> prefetchFutures = new ConcurrentHashMap<>();
+    // 已预取未使用的 jar 大小总和
+    final AtomicLong prefetchBytes = new AtomicLong();
+    private ExecutorService prefetchExecutor;
+
+    /* ====== MethodUtil ====== */
+    final Map<String, String> relationCache = new ConcurrentHashMap<>();
+
+    /* ====== SearchUtil ====== */
+    final Set<String> allowPrefix = ConcurrentHashMap.newKeySet();
+    final Set<String> stopInterfaces = ConcurrentHashMap.newKeySet();
+    // 缓存 file|call -> callers 搜索结果，常驻服务模式下开启
+    final Cache<String, List<String>> callerCache = Caffeine.newBuilder()
+            .maximumSize(200000)
+            .build();
+    volatile boolean callerCacheEnabled = false;
+    // 分片模式下由各 worker 进程搜索 caller
+    volatile ShardUtil shards = null;
+
+    /* ====== PathSearchUtil ====== */
+    // 入口方法注解，a.b.C 格式
+    final Set<String> entryAnnotations = ConcurrentHashMap.newKeySet();
+    // 父类/接口 -> 入口方法名
+    final Map<String, Set<String>> entryMethods = new ConcurrentHashMap<>();
+    // lib 中扫描出的入口方法，首次使用时计算
+    volatile Set<String> entryPoints = null;
+    // 入口可达的方法：cName#fName#fDesc 及 cName#fName，首次使用时计算
+    volatile Set<String> reachableMethods = null;
+
+    /* ====== 类加载时建立的索引 ====== */
+    // 方法注解(a.b.C) -> 带有该注解的方法
+    final Map<String, Set<String>> annotationIndex = new ConcurrentHashMap<>();
+    // 父类/接口 -> 直接子类/实现类
+    final Map<String, Set<String>> subTypeIndex = new ConcurrentHashMap<>();
+    // 已完整加载并建立索引的 jar
+    final Set<String> indexedFiles = ConcurrentHashMap.newKeySet();
+
+    /* ====== PrettyPrintUtil ====== */
+    // 过滤输出结果
+    final Set<String> filters = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean closed = false;
+
+    public AnalysisContext() {
+        clsNameFileMap = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(5))
+                .expireAfterWrite(Duration.ofMinutes(2))
+                .initialCapacity(300)
+                .maximumSize(1000)
+                .build(cName -> with(() -> DependencyUtil.getJarPathByClassName(cName)));
+        fileNodesMap = Caffeine.newBuilder()
+                .maximumWeight(100000)
+                .weigher((String key, LoadingCache<String, ClassNode> value) -> Long.valueOf(value.estimatedSize()).intValue())
+                .build().asMap();
+        allowPrefix.addAll(Arrays.asList(
+                "javax.sql.",
+                "javax.naming."
+        ));
+        for (String mapping : List.of("RequestMapping", "GetMapping", "PostMapping", "PutMapping", "DeleteMapping", "PatchMapping")) {
+            entryAnnotations.add("org.springframework.web.bind.annotation." + mapping);
+        }
+        for (String pkg : List.of("javax.servlet.", "jakarta.servlet.")) {
+            addEntryMethod(pkg + "Servlet", "service");
+            addEntryMethod(pkg + "http.HttpServlet", "service", "doGet", "doPost", "doPut", "doDelete", "doHead", "doOptions", "doTrace");
+            addEntryMethod(pkg + "Filter", "doFilter");
+        }
+    }
+
+    // 获取当前线程绑定的上下文，未绑定时返回默认上下文
+    public static AnalysisContext current() {
+        AnalysisContext context = currentContext.get();
+        return context != null ? context : defaultContext;
+    }
+
+    public static AnalysisContext getDefault() {
+        return defaultContext;
+    }
+
+    // 在当前上下文中执行 task
+    public <T> T call(Callable<T> task) throws Exception {
+        checkOpen();
+        AnalysisContext previous = currentContext.get();
+        currentContext.set(this);
+        try {
+            return task.call();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    public void run(Runnable task) {
+        checkOpen();
+        with(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    // 包装 task，使其在其他线程(线程池)中执行时同样绑定当前上下文
+    public Runnable wrap(Runnable task) {
+        return () -> run(task);
+    }
+
+    public <T> Callable<T> wrap(Callable<T> task) {
+        return () -> call(task);
+    }
+
+    <T> T with(Supplier<T> supplier) {
+        AnalysisContext previous = currentContext.get();
+        currentContext.set(this);
+        try {
+            return supplier.get();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    private static void restore(AnalysisContext previous) {
+        if (previous == null) {
+            currentContext.remove();
+        } else {
+            currentContext.set(previous);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("AnalysisContext is closed");
+        }
+    }
+
+    // 入口变化后重新计算入口及可达方法
+    void addEntryAnnotation(String annotation) {
+        entryAnnotations.add(annotation);
+        entryPoints = null;
+        reachableMethods = null;
+    }
+
+    void addEntryMethod(String parent, String... fNames) {
+        entryMethods.computeIfAbsent(parent, k -> ConcurrentHashMap.newKeySet()).addAll(Arrays.asList(fNames));
+        entryPoints = null;
+        reachableMethods = null;
+    }
+
+    synchronized ExecutorService getPrefetchExecutor(int threads) {
+        if (prefetchExecutor == null) {
+            prefetchExecutor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().daemon().name("prefetch-", 0).factory());
+        }
+        return prefetchExecutor;
+    }
+
+    public void setCallerCacheEnabled(boolean callerCacheEnabled) {
+        this.callerCacheEnabled = callerCacheEnabled;
+    }
+
+    public boolean isCallerCacheEnabled() {
+        return callerCacheEnabled;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 释放 ClassNode 缓存及搜索过程中的中间结果，保留依赖解析结果，上下文可继续使用
+     */
+    public void release() {
+        fileNodesMap.values().forEach(LoadingCache::invalidateAll);
+        fileNodesMap.clear();
+        classBytesStore.invalidateAll();
+        filePkgEntriesMap.clear();
+        jarScanCache.invalidateAll();
+        classSummaries.clear();
+        dispatchTable = null;
+        overMaxSizeJars.clear();
+        loadFailedClasses.clear();
+        clsNameFileMap.invalidateAll();
+        loadPathFailedClasses.clear();
+        methodTables.invalidateAll();
+        dependencyGraph = null;
+        jarRefIndex = null;
+        relationCache.clear();
+        stopInterfaces.clear();
+        callerCache.invalidateAll();
+        prefetchFutures.values().forEach(future -> future.cancel(false));
+        prefetchFutures.clear();
+        prefetchBytes.set(0);
+        entryPoints = null;
+        reachableMethods = null;
+        annotationIndex.clear();
+        subTypeIndex.clear();
+        indexedFiles.clear();
+    }
+
+    /**
+     * 释放全部状态，默认上下文被关闭后可重新解析使用，其他上下文关闭后不可再使用
+     */
+    @Override
+    public void close() {
+        release();
+        synchronized (this) {
+            if (prefetchExecutor != null) {
+                prefetchExecutor.shutdownNow();
+                prefetchExecutor = null;
+            }
+        }
+        artifactIdGroupFileMap.clear();
+        fileArtifactIdGroupMap.clear();
+        missArtifactIdFiles.clear();
+        missPomFiles.clear();
+        pkgNameFileMap.clear();
+        fileArtifactIdMap.clear();
+        filePkgNameMap.clear();
+        digestFileMap.clear();
+        duplicateFileMap.clear();
+        loadFailedJarFiles.clear();
+        loadFailedClassJarFiles.clear();
+        jdkFilePath = null;
+        loadedJarCount.set(0);
+        filters.clear();
+        if (this != defaultContext) {
+            closed = true;
+        }
+        if (currentContext.get() == this) {
+            currentContext.remove();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.observer.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+/**
+ * jar/war 及其内嵌 jar 的统一读取接口，通过 {@link ArchiveUtil#open(String)} 获取
+ */
+public interface Archive extends Closeable {
+    // 文件路径，内嵌 jar 格式为 app.jar!/BOOT-INF/lib/a.jar
+    String getName();
+
+    Stream<ZipEntry> stream();
+
+    ZipEntry getEntry(String name);
+
+    InputStream getInputStream(ZipEntry entry) throws IOException;
+
+    Manifest getManifest() throws IOException;
+}
@@ -0,0 +1,545 @@
+package org.observer.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * 打开 jar/war 及 Spring Boot fat jar(BOOT-INF/lib)、war(WEB-INF/lib) 中的内嵌 jar，无需解压至磁盘
+ * <p>
+ * 路径格式：
+ * 1. a.jar: 普通 jar
+ * 2. app.jar!/BOOT-INF/lib/a.jar: 内嵌 jar，STORED 时按 offset 直接读取外层文件，DEFLATED 时解压至内存
+ * 3. app.jar!/BOOT-INF/classes/: 外层文件中指定目录下的类，entry 名称去除该前缀
+ */
+public class ArchiveUtil {
+    public final static String separator = "!/";
+    private final static List<String> nestedLibPrefixes = List.of("BOOT-INF/lib/", "WEB-INF/lib/");
+    private final static List<String> nestedClassesPrefixes = List.of("BOOT-INF/classes/", "WEB-INF/classes/");
+    // 缓存解析后的 central directory: name|length|lastModified -> entries
+    private final static Cache<String, Map<String, OffsetEntry>> directoryCache = Caffeine.newBuilder()
+            .maximumSize(256)
+            .build();
+    // 缓存 DEFLATED 内嵌 jar 解压后的内容
+    private final static Cache<String, byte[]> inflatedCache = Caffeine.newBuilder()
+            .maximumWeight(128L * 1024 * 1024)
+            .weigher((String key, byte[] value) -> value.length)
+            .build();
+
+    public static boolean isArchive(String name) {
+        return name.endsWith(".jar") || name.endsWith(".war");
+    }
+
+    public static Archive open(String path) throws IOException {
+        if (!path.contains(separator)) {
+            return new JarArchive(new JarFile(path));
+        }
+        String[] segments = path.split(separator);
+        ZipArchive archive = ZipArchive.open(segments[0]);
+        try {
+            for (int i = 1; i < segments.length; i++) {
+                if (i == segments.length - 1 && path.endsWith("/")) {
+                    return new PrefixArchive(archive, segments[i] + (segments[i].endsWith("/") ? "" : "/"), path);
+                }
+                archive = archive.openNested(segments[i]);
+            }
+        } catch (IOException | RuntimeException e) {
+            archive.close();
+            throw e;
+        }
+        return archive;
+    }
+
+    /**
+     * 展开 fat jar / war 为内嵌 jar 及外层 classes 目录，普通 jar 原样返回
+     */
+    public static List<String> expand(String path) throws IOException {
+        List<String> names;
+        try (Archive archive = open(path)) {
+            names = archive.stream().map(ZipEntry::getName).toList();
+        }
+        List<String> results = new ArrayList<>(names.stream().filter(name -> name.endsWith(".jar") && nestedLibPrefixes.stream().anyMatch(name::startsWith)).map(name -> path + separator + name).toList());
+        if (results.isEmpty()) {
+            return List.of(path);
+        }
+        nestedClassesPrefixes.stream().filter(prefix -> names.stream().anyMatch(name -> name.startsWith(prefix) && name.endsWith(".class"))).forEach(prefix -> results.add(path + separator + prefix));
+        System.out.printf("[+] Expand Archive: %s, nested count: %s%n", path, results.size());
+        return results;
+    }
+
+    // 读取 path 中的 entry 内容，不存在时返回 null
+    public static byte[] readEntry(String path, String entryName) throws IOException {
+        try (Archive archive = open(path)) {
+            ZipEntry entry = archive.getEntry(entryName);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream inputStream = archive.getInputStream(entry)) {
+                return inputStream.readAllBytes();
+            }
+        }
+    }
+
+    public static boolean containsEntry(String path, String entryName) throws IOException {
+        try (Archive archive = open(path)) {
+            return archive.getEntry(entryName) != null;
+        }
+    }
+
+    /**
+     * jar 内容摘要：按名称排序后对 central directory 中各 entry 的 name、crc、size 计算 SHA-256，无需读取 entry 内容
+     * <p>
+     * 文件名不同但内容一致的 jar 摘要相同
+     */
+    public static String digest(Archive archive) {
+        return digest(archive.stream().filter(entry -> !entry.isDirectory()).toList());
+    }
+
+    static String digest(List<ZipEntry> entries) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        entries.stream().filter(entry -> !entry.isDirectory()).sorted(Comparator.comparing(ZipEntry::getName)).forEach(entry ->
+                digest.update(String.format("%s:%s:%s%n", entry.getName(), entry.getCrc(), entry.getSize()).getBytes(StandardCharsets.UTF_8)));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // 单个 class 的内容标识，名称、crc 及 size 均一致时视为同一份字节码
+    public static String classKey(ZipEntry entry) {
+        return String.format("%s:%s:%s", entry.getName(), entry.getCrc(), entry.getSize());
+    }
+
+    static ZipEntry copyEntry(ZipEntry entry, String name) {
+        ZipEntry copy = new ZipEntry(name);
+        copy.setMethod(entry.getMethod());
+        copy.setSize(entry.getSize());
+        copy.setCompressedSize(entry.getCompressedSize());
+        if (entry.getCrc() != -1) {
+            copy.setCrc(entry.getCrc());
+        }
+        return copy;
+    }
+
+    private static class JarArchive implements Archive {
+        private final JarFile jarFile;
+
+        private JarArchive(JarFile jarFile) {
+            this.jarFile = jarFile;
+        }
+
+        @Override
+        public String getName() {
+            return jarFile.getName();
+        }
+
+        @Override
+        public Stream<ZipEntry> stream() {
+            return jarFile.stream().map(entry -> entry);
+        }
+
+        @Override
+        public ZipEntry getEntry(String name) {
+            return jarFile.getEntry(name);
+        }
+
+        @Override
+        public InputStream getInputStream(ZipEntry entry) throws IOException {
+            return jarFile.getInputStream(entry);
+        }
+
+        @Override
+        public Manifest getManifest() throws IOException {
+            return jarFile.getManifest();
+        }
+
+        @Override
+        public void close() throws IOException {
+            jarFile.close();
+        }
+    }
+
+    // 外层文件中某一目录的视图
+    private static class PrefixArchive implements Archive {
+        private final Archive archive;
+        private final String prefix;
+        private final String name;
+
+        private PrefixArchive(Archive archive, String prefix, String name) {
+            this.archive = archive;
+            this.prefix = prefix;
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Stream<ZipEntry> stream() {
+            return archive.stream().filter(entry -> entry.getName().startsWith(prefix) && entry.getName().length() > prefix.length())
+                    .map(entry -> copyEntry(entry, entry.getName().substring(prefix.length())));
+        }
+
+        @Override
+        public ZipEntry getEntry(String name) {
+            ZipEntry entry = archive.getEntry(prefix + name);
+            return entry == null ? null : copyEntry(entry, name);
+        }
+
+        @Override
+        public InputStream getInputStream(ZipEntry entry) throws IOException {
+            return archive.getInputStream(archive.getEntry(prefix + entry.getName()));
+        }
+
+        @Override
+        public Manifest getManifest() throws IOException {
+            return archive.getManifest();
+        }
+
+        @Override
+        public void close() throws IOException {
+            archive.close();
+        }
+    }
+
+    private static class OffsetEntry extends ZipEntry {
+        private final long localHeaderOffset;
+
+        private OffsetEntry(String name, long localHeaderOffset) {
+            super(name);
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    // 直接解析 central directory 的 zip 读取实现，数据源为外层文件的一段区域或内存
+    private static class ZipArchive implements Archive {
+        private final String name;
+        private final Source source;
+        private final Map<String, OffsetEntry> entries;
+
+        private ZipArchive(String name, Source source, String cacheKey) throws IOException {
+            this.name = name;
+            this.source = source;
+            Map<String, OffsetEntry> cached = directoryCache.getIfPresent(cacheKey);
+            if (cached == null) {
+                cached = readCentralDirectory(source);
+                directoryCache.put(cacheKey, cached);
+            }
+            this.entries = cached;
+        }
+
+        private static ZipArchive open(String path) throws IOException {
+            File file = new File(path);
+            FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            try {
+                return new ZipArchive(path, new Source(channel, null, 0, channel.size()), String.format("%s|%s|%s", path, file.length(), file.lastModified()));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private ZipArchive openNested(String entryName) throws IOException {
+            OffsetEntry entry = entries.get(entryName);
+            if (entry == null) {
+                throw new FileNotFoundException(String.format("%s%s%s", name, separator, entryName));
+            }
+            String nestedName = name + separator + entryName;
+            String cacheKey = String.format("%s|%s|%s", nestedName, entry.getCrc(), entry.getCompressedSize());
+            if (entry.getMethod() == ZipEntry.STORED) {
+                return new ZipArchive(nestedName, source.slice(getDataOffset(entry), entry.getCompressedSize()), cacheKey);
+            }
+            byte[] bytes = inflatedCache.getIfPresent(cacheKey);
+            if (bytes == null) {
+                try (InputStream inputStream = getInputStream(entry)) {
+                    bytes = inputStream.readAllBytes();
+                }
+                inflatedCache.put(cacheKey, bytes);
+            }
+            return new ZipArchive(nestedName, new Source(source.channel, bytes, 0, bytes.length), cacheKey);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Stream<ZipEntry> stream() {
+            return entries.values().stream().map(entry -> entry);
+        }
+
+        @Override
+        public ZipEntry getEntry(String name) {
+            ZipEntry entry = entries.get(name);
+            // 与 ZipFile 保持一致，支持不带 / 的目录名
+            return entry != null ? entry : entries.get(name + "/");
+        }
+
+        @Override
+        public InputStream getInputStream(ZipEntry entry) throws IOException {
+            OffsetEntry offsetEntry = entries.get(entry.getName());
+            if (offsetEntry == null) {
+                throw new ZipException("entry not found: " + entry.getName());
+            }
+            InputStream inputStream = new SourceInputStream(source, getDataOffset(offsetEntry), offsetEntry.getCompressedSize());
+            if (offsetEntry.getMethod() == ZipEntry.STORED) {
+                return inputStream;
+            }
+            return new EntryInflaterInputStream(inputStream);
+        }
+
+        @Override
+        public Manifest getManifest() throws IOException {
+            ZipEntry entry = getEntry(JarFile.MANIFEST_NAME);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream inputStream = getInputStream(entry)) {
+                return new Manifest(inputStream);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+
+        private long getDataOffset(OffsetEntry entry) throws IOException {
+            byte[] header = new byte[30];
+            source.readFully(entry.localHeaderOffset, header);
+            if (le32(header, 0) != 0x04034b50L) {
+                throw new ZipException("invalid local header: " + entry.getName());
+            }
+            return entry.localHeaderOffset + 30 + le16(header, 26) + le16(header, 28);
+        }
+
+        private static Map<String, OffsetEntry> readCentralDirectory(Source source) throws IOException {
+            long size = source.size;
+            int tailLen = (int) Math.min(size, 22 + 0xFFFF);
+            byte[] tail = new byte[tailLen];
+            source.readFully(size - tailLen, tail);
+            int eocd = -1;
+            for (int i = tailLen - 22; i >= 0; i--) {
+                if (le32(tail, i) == 0x06054b50L) {
+                    eocd = i;
+                    break;
+                }
+            }
+            if (eocd < 0) {
+                throw new ZipException("end of central directory not found");
+            }
+            long eocdPos = size - tailLen + eocd;
+            long count = le16(tail, eocd + 10);
+            long cdSize = le32(tail, eocd + 12);
+            long cdOffset = le32(tail, eocd + 16);
+            if (count == 0xFFFF || cdSize == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL) {
+                // zip64
+                byte[] locator = new byte[20];
+                source.readFully(eocdPos - 20, locator);
+                if (le32(locator, 0) != 0x07064b50L) {
+                    throw new ZipException("zip64 locator not found");
+                }
+                eocdPos = le64(locator, 8);
+                byte[] record = new byte[56];
+                source.readFully(eocdPos, record);
+                count = le64(record, 32);
+                cdSize = le64(record, 40);
+                cdOffset = le64(record, 48);
+            }
+            // 存在前置数据(如可执行 jar 的启动脚本)时修正 offset
+            long shift = eocdPos - cdSize - cdOffset;
+            byte[] cd = new byte[Math.toIntExact(cdSize)];
+            source.readFully(cdOffset + shift, cd);
+
+            Map<String, OffsetEntry> entries = new LinkedHashMap<>();
+            int pos = 0;
+            for (long i = 0; i < count && pos + 46 <= cd.length; i++) {
+                if (le32(cd, pos) != 0x02014b50L) {
+                    throw new ZipException("invalid central directory header");
+                }
+                int method = le16(cd, pos + 10);
+                long crc = le32(cd, pos + 16);
+                long csize = le32(cd, pos + 20);
+                long usize = le32(cd, pos + 24);
+                int nameLen = le16(cd, pos + 28);
+                int extraLen = le16(cd, pos + 30);
+                int commentLen = le16(cd, pos + 32);
+                long offset = le32(cd, pos + 42);
+                String name = new String(cd, pos + 46, nameLen, StandardCharsets.UTF_8);
+                int extra = pos + 46 + nameLen;
+                int extraEnd = extra + extraLen;
+                while (extra + 4 <= extraEnd) {
+                    int id = le16(cd, extra);
+                    int len = le16(cd, extra + 2);
+                    if (id == 0x0001) {
+                        int p = extra + 4;
+                        if (usize == 0xFFFFFFFFL) {
+                            usize = le64(cd, p);
+                            p += 8;
+                        }
+                        if (csize == 0xFFFFFFFFL) {
+                            csize = le64(cd, p);
+                            p += 8;
+                        }
+                        if (offset == 0xFFFFFFFFL) {
+                            offset = le64(cd, p);
+                        }
+                        break;
+                    }
+                    extra += 4 + len;
+                }
+                OffsetEntry entry = new OffsetEntry(name, offset + shift);
+                entry.setMethod(method == ZipEntry.STORED ? ZipEntry.STORED : ZipEntry.DEFLATED);
+                entry.setCrc(crc);
+                entry.setSize(usize);
+                entry.setCompressedSize(csize);
+                entries.put(name, entry);
+                pos += 46 + nameLen + extraLen + commentLen;
+            }
+            return entries;
+        }
+    }
+
+    // 文件区域或内存数据源
+    private static class Source {
+        private final FileChannel channel;
+        private final byte[] bytes;
+        private final long base;
+        private final long size;
+
+        private Source(FileChannel channel, byte[] bytes, long base, long size) {
+            this.channel = channel;
+            this.bytes = bytes;
+            this.base = base;
+            this.size = size;
+        }
+
+        private Source slice(long offset, long length) {
+            return new Source(channel, bytes, base + offset, length);
+        }
+
+        private int read(long pos, byte[] buf, int off, int len) throws IOException {
+            if (pos >= size) {
+                return -1;
+            }
+            len = (int) Math.min(len, size - pos);
+            if (bytes != null) {
+                System.arraycopy(bytes, Math.toIntExact(base + pos), buf, off, len);
+                return len;
+            }
+            return channel.read(ByteBuffer.wrap(buf, off, len), base + pos);
+        }
+
+        private void readFully(long pos, byte[] buf) throws IOException {
+            int off = 0;
+            while (off < buf.length) {
+                int n = read(pos + off, buf, off, buf.length - off);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                off += n;
+            }
+        }
+
+        private void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class SourceInputStream extends InputStream {
+        private final Source source;
+        private final long end;
+        private long pos;
+
+        private SourceInputStream(Source source, long start, long length) {
+            this.source = source;
+            this.pos = start;
+            this.end = start + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= end) {
+                return -1;
+            }
+            int n = source.read(pos, b, off, (int) Math.min(len, end - pos));
+            if (n > 0) {
+                pos += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - pos);
+        }
+    }
+
+    // 与 ZipFile 一致，nowrap 模式下在输入结束时补充一个 dummy byte
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof = false;
+
+        private EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), 8192);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            inf.end();
+        }
+    }
+
+    private static int le16(byte[] b, int off) {
+        return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8);
+    }
+
+    private static long le32(byte[] b, int off) {
+        return le16(b, off) | ((long) le16(b, off + 2) << 16);
+    }
+
+    private static long le64(byte[] b, int off) {
+        return le32(b, off) | (le32(b, off + 4) << 32);
+    }
+}
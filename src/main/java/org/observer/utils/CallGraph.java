@@ -0,0 +1,201 @@
+package org.observer.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonStreamParser;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * 图结构的回溯结果：节点表(call) + 边表，同一方法只保存一次
+ * <p>
+ * 嵌套结构中经由多条路径到达的方法会重复出现，图结构通过节点下标共享
+ * 边格式为 [callee, caller, kind]，kind 为 {@link #CALL} 或 {@link #UPGRADE}(callee 提升至父类/接口方法)
+ * <pre>
+ * {"sink":"a.B#c#null#1","nodes":["a.B#c#null#1","a.D#e#()V#1"],"edges":[[0,1,0]]}
+ * </pre>
+ */
+public class CallGraph {
+    public final static int CALL = 0;
+    public final static int UPGRADE = 1;
+    private final static Gson gson = new Gson();
+
+    private final String sink;
+    private final List<String> nodes = new ArrayList<>();
+    private final List<int[]> edges = new ArrayList<>();
+    private transient Map<String, Integer> nodeIds;
+    private transient Set<Long> edgeIds;
+    private transient Map<Integer, List<int[]>> outEdges;
+
+    public CallGraph(String sink) {
+        this.sink = sink;
+        node(sink);
+    }
+
+    public String getSink() {
+        return sink;
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public List<int[]> getEdges() {
+        return edges;
+    }
+
+    // 获取 call 对应的节点下标，不存在时添加
+    public synchronized int node(String call) {
+        Map<String, Integer> ids = nodeIds();
+        Integer id = ids.get(call);
+        if (id == null) {
+            id = nodes.size();
+            nodes.add(call);
+            ids.put(call, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return 边已存在时返回 false
+     */
+    public synchronized boolean addEdge(String callee, String caller, int kind) {
+        int from = node(callee);
+        int to = node(caller);
+        if (edgeIds().add(((long) from << 32) | to)) {
+            int[] edge = new int[]{from, to, kind};
+            edges.add(edge);
+            if (outEdges != null) {
+                outEdges.computeIfAbsent(from, k -> new ArrayList<>()).add(edge);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // SearchUtil 搜索 call 的 caller 前后调用，供 CallStream 监听搜索进度
+    void beforeSearch(String call) {
+    }
+
+    void afterSearch(String call) {
+    }
+
+    /**
+     * 展开 sink 至入口(无 caller 的节点)的所有路径，路径中包含环时在环处截断
+     *
+     * @param limit 最多返回的路径数量
+     */
+    public List<List<String>> paths(int limit) {
+        List<List<String>> results = new ArrayList<>();
+        Deque<Integer> path = new ArrayDeque<>();
+        path.addLast(0);
+        expand(0, path, new HashSet<>(Set.of(0)), results, limit);
+        return results;
+    }
+
+    private void expand(int id, Deque<Integer> path, Set<Integer> onPath, List<List<String>> results, int limit) {
+        if (results.size() >= limit) {
+            return;
+        }
+        List<int[]> next = outEdges().getOrDefault(id, List.of()).stream().filter(edge -> !onPath.contains(edge[1])).toList();
+        if (next.isEmpty()) {
+            results.add(path.stream().map(nodes::get).toList());
+            return;
+        }
+        for (int[] edge : next) {
+            path.addLast(edge[1]);
+            onPath.add(edge[1]);
+            expand(edge[1], path, onPath, results, limit);
+            onPath.remove(edge[1]);
+            path.removeLast();
+        }
+    }
+
+    /**
+     * 转换为 SearchUtil.getBTCaller 的嵌套格式，每个节点只在首次出现时展开，之后以叶子节点出现
+     */
+    public Map<String, List> toTree() {
+        Map<String, List> root = new LinkedHashMap<>();
+        root.put(sink, children(0, new HashSet<>(Set.of(0))));
+        return root;
+    }
+
+    private List children(int id, Set<Integer> expanded) {
+        List<Map> children = new ArrayList<>();
+        for (int[] edge : outEdges().getOrDefault(id, List.of())) {
+            Map<String, List> child = new LinkedHashMap<>();
+            child.put(nodes.get(edge[1]), expanded.add(edge[1]) ? children(edge[1], expanded) : new ArrayList<>());
+            children.add(child);
+        }
+        return children;
+    }
+
+    /**
+     * 由嵌套格式构建图，{x -> [{super(x) -> [...]}]} 且 super(x) 与 x 方法名一致时视为 UPGRADE 边
+     */
+    public static CallGraph fromTree(Map<String, List> tree) {
+        Map.Entry<String, List> entry = tree.entrySet().iterator().next();
+        CallGraph graph = new CallGraph(entry.getKey());
+        addTree(graph, entry.getKey(), entry.getValue());
+        return graph;
+    }
+
+    private static void addTree(CallGraph graph, String callee, List children) {
+        for (Object child : children) {
+            ((Map<String, List>) child).forEach((caller, next) -> {
+                graph.addEdge(callee, caller, isUpgrade(callee, caller) ? UPGRADE : CALL);
+                addTree(graph, caller, next);
+            });
+        }
+    }
+
+    private static boolean isUpgrade(String callee, String caller) {
+        String[] calleeItems = callee.split("#");
+        String[] callerItems = caller.split("#");
+        return !calleeItems[0].equals(callerItems[0]) && calleeItems[1].equals(callerItems[1]) && calleeItems[2].equals(callerItems[2]);
+    }
+
+    public String toJson() {
+        return gson.toJson(this);
+    }
+
+    // 读取 PrettyPrintUtil.saveGraphToFile 保存的文件，文件中依次保存多个 sink 的结果
+    public static List<CallGraph> readAll(String path) throws IOException {
+        List<CallGraph> graphs = new ArrayList<>();
+        try (Reader reader = new FileReader(path)) {
+            JsonStreamParser parser = new JsonStreamParser(reader);
+            while (parser.hasNext()) {
+                graphs.add(gson.fromJson(parser.next(), CallGraph.class));
+            }
+        }
+        return graphs;
+    }
+
+    private Map<String, Integer> nodeIds() {
+        if (nodeIds == null) {
+            nodeIds = new HashMap<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                nodeIds.put(nodes.get(i), i);
+            }
+        }
+        return nodeIds;
+    }
+
+    private Set<Long> edgeIds() {
+        if (edgeIds == null) {
+            edgeIds = new HashSet<>();
+            edges.forEach(edge -> edgeIds.add(((long) edge[0] << 32) | edge[1]));
+        }
+        return edgeIds;
+    }
+
+    private synchronized Map<Integer, List<int[]>> outEdges() {
+        if (outEdges == null) {
+            outEdges = new HashMap<>();
+            edges.forEach(edge -> outEdges.computeIfAbsent(edge[0], k -> new ArrayList<>()).add(edge));
+        }
+        return outEdges;
+    }
+}
@@ -0,0 +1,243 @@
+package org.observer.utils;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 流式回溯：回溯过程中逐条发布发现的边或完整路径，无需等待整棵树构建完成
+ * <p>
+ * 1. edges：每条新发现的边 callee -> caller
+ * 2. paths：sink 至入口(无 caller 的方法或 [const]/[unreachable] 叶子)的路径，经由首次发现各节点的边
+ * <p>
+ * 每次 subscribe 在虚拟线程中独立执行一次回溯，使用创建时的上下文；订阅者 request 前不会开始搜索，
+ * 已发布数量达到 request 数量时搜索线程阻塞，cancel 后在下一个节点展开或发布时终止搜索
+ * <pre>
+ * List&lt;List&lt;String&gt;&gt; paths = CallStream.paths(call, true).take(20);
+ * </pre>
+ */
+public class CallStream<T> implements Flow.Publisher<T> {
+    private final String sink;
+    private final boolean upgrade;
+    private final boolean pathMode;
+    private final AnalysisContext context;
+
+    public record Edge(String callee, String caller, int kind) {
+    }
+
+    private CallStream(String sink, boolean upgrade, boolean pathMode) {
+        this.sink = sink;
+        this.upgrade = upgrade;
+        this.pathMode = pathMode;
+        this.context = AnalysisContext.current();
+    }
+
+    public static CallStream<Edge> edges(String callee, boolean upgrade) {
+        return new CallStream<>(callee, upgrade, false);
+    }
+
+    public static CallStream<List<String>> paths(String callee, boolean upgrade) {
+        return new CallStream<>(callee, upgrade, true);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber);
+        Search search = new Search(subscriber);
+        subscriber.onSubscribe(search);
+        Thread.ofVirtual().name("call-stream").start(search::run);
+    }
+
+    /**
+     * 获取前 limit 个结果后取消搜索，搜索结束时不足 limit 个
+     */
+    public List<T> take(int limit) throws InterruptedException {
+        List<T> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(1);
+        Throwable[] error = new Throwable[1];
+        subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                if (limit > 0) {
+                    subscription.request(limit);
+                } else {
+                    subscription.cancel();
+                    latch.countDown();
+                }
+            }
+
+            @Override
+            public void onNext(T item) {
+                results.add(item);
+                if (results.size() >= limit) {
+                    subscription.cancel();
+                    latch.countDown();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                error[0] = throwable;
+                latch.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                latch.countDown();
+            }
+        });
+        latch.await();
+        if (error[0] != null) {
+            throw new RuntimeException(error[0]);
+        }
+        return new ArrayList<>(results);
+    }
+
+    // 单次订阅：搜索线程中回调 SearchUtil 的图结构接口，按 demand 发布
+    private class Search extends CallGraph implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition demanded = lock.newCondition();
+        private long demand = 0;
+        private volatile boolean cancelled = false;
+        private volatile Throwable error;
+        // 节点 -> 首次发现该节点的 callee
+        private final Map<String, String> parents = new ConcurrentHashMap<>();
+        // 存在 caller 的节点
+        private final Set<String> expanded = ConcurrentHashMap.newKeySet();
+
+        private Search(Flow.Subscriber<? super T> subscriber) {
+            super(sink);
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            lock.lock();
+            try {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("non-positive request: " + n);
+                    cancelled = true;
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+                demanded.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                demanded.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void run() {
+            try {
+                awaitDemand();
+                context.call(() -> {
+                    SearchUtil.searchBTCaller(sink, upgrade, this);
+                    return null;
+                });
+                if (!cancelled) {
+                    subscriber.onComplete();
+                }
+            } catch (Throwable e) {
+                if (error != null) {
+                    subscriber.onError(error);
+                } else if (!isCancellation(e)) {
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        // 阻塞至存在 demand，取消时抛出 CancellationException
+        private void awaitDemand() {
+            lock.lock();
+            try {
+                while (demand == 0 && !cancelled) {
+                    demanded.await();
+                }
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void emit(T item) {
+            lock.lock();
+            try {
+                awaitDemand();
+                demand--;
+            } finally {
+                lock.unlock();
+            }
+            subscriber.onNext(item);
+        }
+
+        // SearchUtil 将回溯中的异常包装为 RuntimeException
+        private boolean isCancellation(Throwable e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof CancellationException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean addEdge(String callee, String caller, int kind) {
+            if (!super.addEdge(callee, caller, kind)) {
+                return false;
+            }
+            expanded.add(callee);
+            parents.putIfAbsent(caller, callee);
+            if (!pathMode) {
+                emit((T) new Edge(callee, caller, kind));
+            } else if (caller.startsWith(FlowUtil.constPrefix) || caller.startsWith(ReachUtil.unreachablePrefix)) {
+                emit((T) path(caller));
+            }
+            return true;
+        }
+
+        @Override
+        void beforeSearch(String call) {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+        }
+
+        @Override
+        void afterSearch(String call) {
+            if (pathMode && !expanded.contains(call)) {
+                emit((T) path(call));
+            }
+        }
+
+        private List<String> path(String call) {
+            LinkedList<String> path = new LinkedList<>();
+            for (String node = call; node != null; node = node.equals(sink) ? null : parents.get(node)) {
+                path.addFirst(node);
+            }
+            return path;
+        }
+    }
+}
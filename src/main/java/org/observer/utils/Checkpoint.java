@@ -0,0 +1,253 @@
+package org.observer.utils;
+
+import com.google.gson.Gson;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * VulnUtil 的断点续扫：保存于输出目录中，包含两部分
+ * 1. .checkpoint.json：已完成的 sink(saveFile|call) 及完成时各结果文件的长度
+ * 2. .checkpoint.memo：搜索过程中的 callerCache(file|call -> callers) 及 stopInterfaces，扫描期间定时保存
+ * <p>
+ * 扫描期间开启 callerCache(此时不对多个 jar 中相同的 class 去重)，所有 sink 结束后恢复
+ * <p>
+ * 续扫时跳过已完成的 sink，并将结果文件截断至最近一次完成时的长度，丢弃中断的 sink 写入的部分；
+ * 中断的 sink 重新回溯时，已搜索过的 file|call 直接从 memo 中获取，不再重复扫描 jar
+ * <p>
+ * 续扫需使用与中断前相同的 lib 目录
+ * <p>
+ * -Dcheckpoint: 默认 false，开启后 VulnUtil 在输出目录中保存检查点
+ * -Dvuln.resume: 默认 false，输出目录中存在检查点时从检查点继续，不再清空输出目录，同时开启 checkpoint
+ * -Dcheckpoint.interval: 默认 60，扫描期间保存 memo 的间隔(秒)
+ */
+public class Checkpoint {
+    private final static Gson gson = new Gson();
+    private final static String stateFile = ".checkpoint.json";
+    private final static String memoFile = ".checkpoint.memo";
+    private final static int version = 1;
+
+    private final String dir;
+    private State state = new State();
+    private ScheduledExecutorService scheduler;
+    // 正在扫描的 sink 数量
+    private int active = 0;
+    // 首个 sink 开始前的 callerCacheEnabled，所有 sink 结束后恢复
+    private boolean callerCacheEnabled;
+
+    private static class State {
+        Set<String> done = new LinkedHashSet<>();
+        // 结果文件名 -> 最近一次 sink 完成时的长度
+        Map<String, Long> lengths = new HashMap<>();
+    }
+
+    private Checkpoint(String dir) {
+        this.dir = dir;
+    }
+
+    public static boolean isEnabled() {
+        return System.getProperty("checkpoint", "false").equals("true") || isResumeEnabled();
+    }
+
+    public static boolean isResumeEnabled() {
+        return System.getProperty("vuln.resume", "false").equals("true");
+    }
+
+    public static boolean exists(String dir) {
+        return new File(dir, stateFile).isFile();
+    }
+
+    public static Checkpoint create(String dir) {
+        Checkpoint checkpoint = new Checkpoint(dir);
+        checkpoint.saveState();
+        return checkpoint;
+    }
+
+    /**
+     * 读取 dir 中的检查点，memo 恢复至当前上下文
+     */
+    public static Checkpoint load(String dir) {
+        Checkpoint checkpoint = new Checkpoint(dir);
+        try {
+            checkpoint.state = gson.fromJson(Files.readString(Path.of(dir, stateFile)), State.class);
+            int count = checkpoint.loadMemo();
+            System.out.printf("[+] Load Checkpoint: %s, done: %s, memo: %s%n", dir, checkpoint.state.done.size(), count);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return checkpoint;
+    }
+
+    public synchronized boolean isDone(String saveFile, String call) {
+        return state.done.contains(String.format("%s|%s", saveFile, call));
+    }
+
+    /**
+     * sink 开始扫描：丢弃 saveFile 中未完成 sink 写入的结果，开启 callerCache 并定时保存 memo
+     * <p>
+     * 多个扫描器并发执行时各自写入不同的 saveFile，只处理 saveFile 对应的结果文件
+     */
+    public synchronized void begin(String saveFile) {
+        AnalysisContext ctx = AnalysisContext.current();
+        truncate(saveFile);
+        if (active++ == 0) {
+            callerCacheEnabled = ctx.callerCacheEnabled;
+            ctx.setCallerCacheEnabled(true);
+            long interval = Long.parseLong(System.getProperty("checkpoint.interval", "60"));
+            scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("checkpoint").factory());
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    saveMemo(ctx);
+                } catch (Exception e) {
+                    System.out.println("[-] save checkpoint memo failed: " + e.getMessage());
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * sink 扫描完成且结果已写入后调用
+     */
+    public synchronized void commit(String saveFile, String call) {
+        state.done.add(String.format("%s|%s", saveFile, call));
+        resultFiles(saveFile).forEach(file -> state.lengths.put(file.getName(), file.length()));
+        saveState();
+        finish();
+    }
+
+    /**
+     * sink 扫描失败时调用，已保存的 memo 用于续扫
+     */
+    public synchronized void abort() {
+        finish();
+    }
+
+    // 没有正在扫描的 sink 时停止定时保存并恢复 callerCacheEnabled
+    private void finish() {
+        if (--active == 0) {
+            AnalysisContext.current().setCallerCacheEnabled(callerCacheEnabled);
+            if (scheduler != null) {
+                // 等待正在进行的保存完成，避免中断写入
+                scheduler.shutdown();
+                try {
+                    scheduler.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                scheduler = null;
+            }
+        }
+    }
+
+    // saveFile 及其 _filter.json
+    private List<File> resultFiles(String saveFile) {
+        String filterFile = String.format("%s_filter.json", saveFile.substring(0, saveFile.lastIndexOf(".")));
+        return Stream.of(saveFile, filterFile).map(name -> new File(dir, name)).filter(File::isFile).toList();
+    }
+
+    private void truncate(String saveFile) {
+        for (File file : resultFiles(saveFile)) {
+            long length = state.lengths.getOrDefault(file.getName(), 0L);
+            if (file.length() <= length) {
+                continue;
+            }
+            System.out.printf("[!] Discard unfinished result: %s, %s -> %s%n", file, file.length(), length);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void saveState() {
+        try {
+            write(Path.of(dir, stateFile), out -> out.write(gson.toJson(state).getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // 只在 scheduler 线程中执行，finish 等待其完成；不持有 this，避免与 finish 互相等待
+    private void saveMemo(AnalysisContext ctx) {
+        Map<String, List<String>> callers = new HashMap<>(ctx.callerCache.asMap());
+        List<String> stopInterfaces = new ArrayList<>(ctx.stopInterfaces);
+        try {
+            write(Path.of(dir, memoFile), stream -> {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(stream)));
+                out.writeInt(version);
+                out.writeInt(callers.size());
+                for (Map.Entry<String, List<String>> entry : callers.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (String caller : entry.getValue()) {
+                        out.writeUTF(caller);
+                    }
+                }
+                out.writeInt(stopInterfaces.size());
+                for (String owner : stopInterfaces) {
+                    out.writeUTF(owner);
+                }
+                // 写入 gzip 尾部
+                out.close();
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int loadMemo() throws IOException {
+        Path path = Path.of(dir, memoFile);
+        if (!Files.isRegularFile(path)) {
+            return 0;
+        }
+        AnalysisContext ctx = AnalysisContext.current();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            if (in.readInt() != version) {
+                return 0;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String key = in.readUTF();
+                String[] callers = new String[in.readInt()];
+                for (int j = 0; j < callers.length; j++) {
+                    callers[j] = in.readUTF();
+                }
+                ctx.callerCache.put(key, List.of(callers));
+            }
+            int stopSize = in.readInt();
+            for (int i = 0; i < stopSize; i++) {
+                ctx.stopInterfaces.add(in.readUTF());
+            }
+            return size;
+        } catch (EOFException e) {
+            System.out.println("[-] checkpoint memo is broken: " + path);
+            return 0;
+        }
+    }
+
+    private interface Writer {
+        void write(OutputStream out) throws IOException;
+    }
+
+    // 先写入临时文件再替换，中断时保留上一次完整的检查点
+    private static void write(Path path, Writer writer) throws IOException {
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            writer.write(out);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,96 @@
+package org.observer.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 冷层 class 缓存：保存原始 class 字节码(可选压缩)，位于 ClassNode 热层缓存之后
+ * <p>
+ * ClassNode 约为 class 文件的 10~20 倍，热层只保留少量 ClassNode，被淘汰的类从冷层重新解析，无需再次读取 jar
+ * <p>
+ * -Dcold.cache.size: 冷层容量(MB)，默认 1024
+ * -Dcold.cache.compress: 是否压缩存储，默认 false
+ */
+public class ClassBytesStore {
+    private final Cache<String, byte[]> cache;
+    private final boolean compress;
+
+    public ClassBytesStore() {
+        this(Long.parseLong(System.getProperty("cold.cache.size", "1024")) * 1024 * 1024,
+                System.getProperty("cold.cache.compress", "false").equals("true"));
+    }
+
+    public ClassBytesStore(long maxBytes, boolean compress) {
+        this.compress = compress;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, byte[] value) -> value.length + key.length())
+                .build();
+    }
+
+    public void put(String file, String cName, byte[] bytes) {
+        cache.put(key(file, cName), compress ? deflate(bytes) : bytes);
+    }
+
+    // 不存在时返回 null
+    public byte[] get(String file, String cName) {
+        byte[] bytes = cache.getIfPresent(key(file, cName));
+        if (bytes == null) {
+            return null;
+        }
+        return compress ? inflate(bytes) : bytes;
+    }
+
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private static String key(String file, String cName) {
+        return file + "|" + cName;
+    }
+
+    // 前 4 字节保存原始长度
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            out.writeBytes(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes) {
+        Inflater inflater = new Inflater();
+        try {
+            byte[] result = new byte[ByteBuffer.wrap(bytes, 0, 4).getInt()];
+            inflater.setInput(bytes, 4, bytes.length - 4);
+            int off = 0;
+            while (off < result.length && !inflater.finished()) {
+                off += inflater.inflate(result, off, result.length - off);
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new RuntimeException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
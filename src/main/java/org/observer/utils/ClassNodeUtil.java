@@ -9,17 +9,13 @@ import jdk.internal.org.objectweb.asm.tree.ClassNode;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
-import java.util.jar.JarFile;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 
@@ -29,16 +25,6 @@ import static org.observer.utils.StringUtil.y;
 public class ClassNodeUtil {
     public final static String jdkFileName = "rt.jar";
     private final static int cacheMaxSize = 3000;
-    private final static Set<String> overMaxSizeJars = new HashSet<>();
-    private final static Map<String, LoadingCache<String, ClassNode>> fileNodesMap = Caffeine.newBuilder()
-            .maximumWeight(100000)
-            .weigher((String key, LoadingCache<String, ClassNode> value) -> Long.valueOf(value.estimatedSize()).intValue())
-            .build().asMap();
-
-    // 缓存加载失败的 Class
-    private final static Set<String> loadFailedClasses = new HashSet<>();
-    // 缓存加载失败的 JarFile
-    private final static Set<String> loadFailedJarFiles = new HashSet<>();
     /**
      * ClassReader.SKIP_CODE: skip the Code attributes
      * <p>
@@ -50,28 +36,103 @@ public class ClassNodeUtil {
      */
     private final static int flag = ClassReader.SKIP_FRAMES;
 
-    private static LoadingCache<String, ClassNode> newCaffeineMap() {
+    // filePath 对应的热层，未命中时从该文件(冷层)加载
+    private static LoadingCache<String, ClassNode> newCaffeineMap(AnalysisContext ctx, String filePath) {
         return Caffeine.newBuilder()
                 .expireAfterWrite(Duration.ofSeconds(30))
                 .expireAfterAccess(Duration.ofMinutes(2))
-                .build(ClassNodeUtil::getClassNodeByClassName);
+                .build(cName -> ctx.with(() -> getClassNodeByClassName(filePath, cName)));
     }
 
     public static List<ClassNode> loadAllPkgClassNodeFromFile(String file, String pkgName) {
-        Map<String, ClassNode> classNodeMap = getAllClassNodeByFilterAndCache(file, f -> {
+        return loadAllPkgClassNodeFromFile(file, pkgName, null);
+    }
+
+    public static List<ClassNode> loadAllPkgClassNodeFromFile(String file, String pkgName, Set<String> scannedClasses) {
+        Map<String, ClassNode> classNodeMap = getAllClassNodeByFilterAndCache(file, pkgName, f -> {
             String name = f.getName();
             return name.endsWith(".class") && !name.contains("/test/") && !name.contains("_") && name.startsWith(pkgName);
-        });
+        }, scannedClasses);
         return classNodeMap.values().stream().toList();
     }
 
     // 加载 File 内所有的 Class
     public static Map<String, ClassNode> loadAllClassNodeFromFile(String file) {
-        return getAllClassNodeByFilterAndCache(file, f -> {
+        return loadAllClassNodeFromFile(file, null);
+    }
+
+    /**
+     * 加载 File 内所有的 Class，跳过 scannedClasses 中已出现过的相同字节码(名称、crc、size 一致)
+     *
+     * @param scannedClasses 同一次搜索共享，为 null 时不去重
+     */
+    public static Map<String, ClassNode> loadAllClassNodeFromFile(String file, Set<String> scannedClasses) {
+        AnalysisContext ctx = AnalysisContext.current();
+        Map<String, ClassNode> classNodeMap = getAllClassNodeByFilterAndCache(file, "", f -> {
             String name = f.getName();
             // 忽略如 clojure.core$_ 形式的类名
             return name.endsWith(".class") && !name.contains("/test/") && !name.contains("_");
-        });
+        }, scannedClasses);
+        if (scannedClasses == null && !classNodeMap.isEmpty()) {
+            ctx.indexedFiles.add(file);
+        }
+        return classNodeMap;
+    }
+
+    // 加载 lib 中尚未建立索引的 jar，rt.jar 除外
+    public static void indexAll() {
+        AnalysisContext ctx = AnalysisContext.current();
+        for (String file : DependencyUtil.getAllDependencies()) {
+            if (!ctx.indexedFiles.contains(file) && !ctx.loadFailedJarFiles.contains(file) && !file.equals(ctx.jdkFilePath)) {
+                loadAllClassNodeFromFile(file);
+            }
+        }
+    }
+
+    // 记录方法注解及直接父类/接口
+    private static void index(AnalysisContext ctx, ClassNode classNode) {
+        String cName = x(classNode.name);
+        if (classNode.superName != null) {
+            ctx.subTypeIndex.computeIfAbsent(x(classNode.superName), k -> ConcurrentHashMap.newKeySet()).add(cName);
+        }
+        classNode.interfaces.forEach(name -> ctx.subTypeIndex.computeIfAbsent(x(name), k -> ConcurrentHashMap.newKeySet()).add(cName));
+        classNode.methods.stream().filter(methodNode -> methodNode.visibleAnnotations != null).forEach(methodNode -> methodNode.visibleAnnotations.forEach(annotation -> {
+            String name = x(annotation.desc.substring(1, annotation.desc.length() - 1));
+            ctx.annotationIndex.computeIfAbsent(name, k -> ConcurrentHashMap.newKeySet()).add(String.format("%s#%s#%s#%s", cName, methodNode.name, methodNode.desc, methodNode.access));
+        }));
+    }
+
+    /**
+     * 获取 cName 的所有子类及实现类(不包含自身)，基于已建立索引的类
+     */
+    public static Set<String> getSubTypes(String cName) {
+        AnalysisContext ctx = AnalysisContext.current();
+        Set<String> results = new LinkedHashSet<>();
+        Deque<String> queue = new ArrayDeque<>(List.of(cName));
+        while (!queue.isEmpty()) {
+            for (String sub : ctx.subTypeIndex.getOrDefault(queue.poll(), Set.of())) {
+                if (results.add(sub)) {
+                    queue.add(sub);
+                }
+            }
+        }
+        return results;
+    }
+
+    // 跳过 scannedClasses 中的 class，jar 加载成功后再将本次加载的 class 标记为已搜索，加载失败时不影响其他 jar 中相同的 class
+    private static Map<String, ClassNode> getAllClassNodeByFilterAndCache(String filePath, String pkgName, Predicate<ZipEntry> filter, Set<String> scannedClasses) {
+        if (scannedClasses == null) {
+            return getAllClassNodeByFilterAndCache(filePath, pkgName, filter);
+        }
+        Set<String> loaded = new HashSet<>();
+        Map<String, ClassNode> classNodeMap = getAllClassNodeByFilterAndCache(filePath, pkgName, filter.and(f -> {
+            String key = ArchiveUtil.classKey(f);
+            return !scannedClasses.contains(key) && loaded.add(key);
+        }));
+        if (!AnalysisContext.current().loadFailedClassJarFiles.contains(filePath)) {
+            scannedClasses.addAll(loaded);
+        }
+        return classNodeMap;
     }
 
     public static String getPkgName(String cName) {
@@ -79,62 +140,118 @@ public class ClassNodeUtil {
     }
 
     public static ClassNode getClassNodeFromCache(String cName) {
+        AnalysisContext ctx = AnalysisContext.current();
         String filePath = DependencyUtil.getJarPathFromCache(cName);
-        return filePath != null ? fileNodesMap.computeIfAbsent(filePath, k -> newCaffeineMap()).get(cName) : null;
+        return filePath != null ? ctx.fileNodesMap.computeIfAbsent(filePath, k -> newCaffeineMap(ctx, filePath)).get(cName) : null;
     }
 
-    // 根据 className 加载对应的 ClassNode 对象
-    private static ClassNode getClassNodeByClassName(String cName) {
-        ClassNode classNode = null;
-        if (!loadFailedClasses.contains(cName)) {
-            // 从 JDK 中加载
+    // 从 filePath 加载 className 对应的 ClassNode 对象，热层未命中时优先从冷层字节码解析
+    private static ClassNode getClassNodeByClassName(String filePath, String cName) {
+        AnalysisContext ctx = AnalysisContext.current();
+        if (ctx.loadFailedClasses.contains(cName)) {
+            return null;
+        }
+        byte[] bytes = getClassBytes(filePath, cName);
+        if (bytes == null) {
+            return null;
+        }
+        ClassNode classNode = parse(bytes);
+        ctx.classSummaries.putIfAbsent(cName, ClassSummary.of(classNode));
+        index(ctx, classNode);
+        return classNode;
+    }
+
+    /**
+     * 获取类摘要，未命中时以 SKIP_CODE 方式解析字节码，不会加载方法体，也不会占用 ClassNode 热层
+     */
+    public static ClassSummary getClassSummary(String cName) {
+        AnalysisContext ctx = AnalysisContext.current();
+        ClassSummary summary = ctx.classSummaries.get(cName);
+        if (summary != null || ctx.loadFailedClasses.contains(cName)) {
+            return summary;
+        }
+        String filePath = DependencyUtil.getJarPathFromCache(cName);
+        byte[] bytes = filePath != null ? getClassBytes(filePath, cName) : null;
+        if (bytes == null) {
+            return null;
+        }
+        summary = ClassSummary.read(bytes);
+        ctx.classSummaries.put(cName, summary);
+        return summary;
+    }
+
+    /**
+     * 获取 class 字节码：冷层缓存 -> JDK/jar 文件，从文件读取后写入冷层
+     */
+    static byte[] getClassBytes(String filePath, String cName) {
+        AnalysisContext ctx = AnalysisContext.current();
+        byte[] bytes = ctx.classBytesStore.get(filePath, cName);
+        if (bytes == null) {
             try {
-                ClassReader reader = new ClassReader(cName);
-                classNode = new ClassNode();
-                reader.accept(classNode, flag);
-            } catch (IOException ignored) {
-                // 根据 className 加载
-                String filePath = DependencyUtil.getJarPathFromCache(cName);
-                if (filePath != null) {
-                    try (URLClassLoader urlClassLoader = new URLClassLoader(new URL[]{new File(filePath).toURI().toURL()})) {
-                        InputStream inputStream = urlClassLoader.getResourceAsStream(String.format("%s.class", y(cName)));
-                        if (inputStream != null) {
-                            ClassReader reader = new ClassReader(inputStream);
-                            classNode = new ClassNode();
-                            reader.accept(classNode, flag);
-                        }
-                    } catch (IOException e) {
-                        System.out.println("[-] can not load class: " + cName + ", Error: " + e.getMessage());
-                        loadFailedClasses.add(cName);
-                    }
+                if (filePath.equals(jdkFileName)) {
+                    // 从 JDK 中加载
+                    bytes = JdkIndex.getInstance().readClass(cName);
+                } else {
+                    bytes = ArchiveUtil.readEntry(filePath, String.format("%s.class", y(cName)));
                 }
+            } catch (IOException e) {
+                System.out.println("[-] can not load class: " + cName + ", Error: " + e.getMessage());
+                ctx.loadFailedClasses.add(cName);
+            }
+            if (bytes != null) {
+                ctx.classBytesStore.put(filePath, cName, bytes);
             }
         }
-        return classNode;
+        return bytes;
     }
 
+    private static ClassNode parse(byte[] bytes) {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(bytes).accept(classNode, flag);
+        return classNode;
+    }
 
-    // 根据 filter 进行 ClassNode 加载
-    private static Map<String, ClassNode> getAllClassNodeByFilterAndCache(String filePath, Predicate<ZipEntry> filter) {
+    /**
+     * 根据 filter 进行 ClassNode 加载
+     * <p>
+     * 首次加载时读取 jar 并建立按包目录划分的 class 索引，之后只遍历 pkgName 下的分区，ClassNode 从热层/冷层获取，无需再次读取 jar
+     *
+     * @param pkgName a/b/c，"" 表示所有包
+     */
+    private static Map<String, ClassNode> getAllClassNodeByFilterAndCache(String filePath, String pkgName, Predicate<ZipEntry> filter) {
+        AnalysisContext ctx = AnalysisContext.current();
+        if (ctx.loadFailedClassJarFiles.contains(filePath)) {
+            return new HashMap<>();
+        }
+        Map<String, List<ZipEntry>> partitions = ctx.filePkgEntriesMap.get(filePath);
+        if (partitions != null) {
+            return getAllClassNodeFromIndex(ctx, filePath, partitions, pkgName, filter);
+        }
         Map<String, ClassNode> classNodeMap = new HashMap<>();
         File file = new File(filePath);
         try {
-            if (loadFailedJarFiles.contains(filePath)) {
-                return classNodeMap;
-            }
-            try (JarFile jarFile = new JarFile(file)) {
+            try (Archive jarFile = ArchiveUtil.open(filePath)) {
+                // resolve 时已遍历过的 jar 直接复用 entry 列表
+                JarScan scan = JarScan.of(filePath, jarFile);
                 // 不包含 .class 文件直接抛出异常
-                if (jarFile.stream().noneMatch(f -> f.getName().endsWith(".class"))) {
+                if (!scan.hasClass()) {
                     throw new RuntimeException("jar is empty");
                 }
+                partitions = scan.partitions;
+                // 以 jar 中全部 class 的数量判断是否超出 cacheMaxSize，与首次加载的过滤条件(包名、去重)无关
+                if (scan.classEntries.size() > cacheMaxSize && ctx.overMaxSizeJars.add(filePath)) {
+                    System.out.printf("[!] execeed cacheMaxSize: %s, filePath: %s%n", scan.classEntries.size(), filePath);
+                }
                 AtomicInteger errorSize = new AtomicInteger(0);
-                jarFile.stream().filter(filter).forEach(entry -> {
-                    try {
-                        InputStream stream = jarFile.getInputStream(entry);
-                        ClassReader reader = new ClassReader(stream);
-                        ClassNode node = new ClassNode();
-                        reader.accept(node, flag);
+                scan.classEntries.stream().filter(filter).forEach(entry -> {
+                    try (InputStream stream = jarFile.getInputStream(entry)) {
+                        byte[] bytes = stream.readAllBytes();
+                        ClassNode node = parse(bytes);
                         classNodeMap.put(x(node.name), node);
+                        ctx.classSummaries.putIfAbsent(x(node.name), ClassSummary.of(node));
+                        index(ctx, node);
+                        // 超出 cacheMaxSize 的 jar 不进入热层，但字节码仍保留在冷层
+                        ctx.classBytesStore.put(filePath, x(node.name), bytes);
                     } catch (IOException e) {
                         // 存在 5 个以上的 Class 加载失败则直接抛出异常
                         if (errorSize.addAndGet(1) > 3) {
@@ -144,19 +261,34 @@ public class ClassNodeUtil {
                     }
                 });
             }
+            ctx.filePkgEntriesMap.put(filePath, partitions);
         } catch (Exception e) {
             System.out.println("[-] jar loaded failed: " + file.getName() + ", error: " + e);
             classNodeMap.clear();
-            loadFailedJarFiles.add(filePath);
-        }
-        if (!classNodeMap.isEmpty() && !overMaxSizeJars.contains(filePath)) {
-            if (classNodeMap.size() > cacheMaxSize) {
-                overMaxSizeJars.add(filePath);
-                System.out.printf("[!] execeed cacheMaxSize: %s, filePath: %s%n", classNodeMap.size(), filePath);
-            } else {
-                fileNodesMap.computeIfAbsent(filePath, k -> newCaffeineMap()).putAll(classNodeMap);
-            }
+            ctx.loadFailedClassJarFiles.add(filePath);
         }
+        if (!classNodeMap.isEmpty() && !ctx.overMaxSizeJars.contains(filePath)) {
+            ctx.fileNodesMap.computeIfAbsent(filePath, k -> newCaffeineMap(ctx, filePath)).putAll(classNodeMap);
+        }
+        return classNodeMap;
+    }
+
+    // 从索引中获取 ClassNode，超出 cacheMaxSize 的 jar 直接从冷层解析，不进入热层
+    private static Map<String, ClassNode> getAllClassNodeFromIndex(AnalysisContext ctx, String filePath, Map<String, List<ZipEntry>> partitions, String pkgName, Predicate<ZipEntry> filter) {
+        Map<String, ClassNode> classNodeMap = new HashMap<>();
+        LoadingCache<String, ClassNode> cache = ctx.overMaxSizeJars.contains(filePath) ? null : ctx.fileNodesMap.computeIfAbsent(filePath, k -> newCaffeineMap(ctx, filePath));
+        partitions.forEach((pkg, entries) -> {
+            if (!pkg.startsWith(pkgName)) {
+                return;
+            }
+            entries.stream().filter(filter).forEach(entry -> {
+                String cName = x(entry.getName().substring(0, entry.getName().length() - ".class".length()));
+                ClassNode node = cache != null ? cache.get(cName) : getClassNodeByClassName(filePath, cName);
+                if (node != null) {
+                    classNodeMap.put(cName, node);
+                }
+            });
+        });
         return classNodeMap;
     }
 
@@ -164,50 +296,58 @@ public class ClassNodeUtil {
         return (classNode.access & Opcodes.ACC_INTERFACE) != 0;
     }
 
+    // 类不存在时返回 false
+    public static boolean isInterface(String cName) {
+        ClassSummary summary = getClassSummary(cName);
+        return summary != null && summary.isInterface();
+    }
+
     public static Map<String, ClassNode> loadAllClassNodeFromDir(String dir) throws Exception {
         Map<String, ClassNode> classNodeMap = new HashMap<>();
         try (Stream<Path> entries = Files.walk(Paths.get(dir))) {
-            entries.filter(f -> f.endsWith(".jar")).forEach(f ->
-                    classNodeMap.putAll(loadAllClassNodeFromFile(f.toString()))
-            );
+            entries.filter(f -> ArchiveUtil.isArchive(f.toFile().getName())).forEach(f -> {
+                try {
+                    ArchiveUtil.expand(f.toString()).forEach(file -> classNodeMap.putAll(loadAllClassNodeFromFile(file)));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
         }
         System.out.println("[+] Load ClassNodes From Dir Successfully");
         return classNodeMap;
     }
 
+    // 并行解析 JDK 全部类，日常回溯中 JDK 类按需通过 JdkIndex 加载，无需调用该方法
     public static Map<String, ClassNode> loadAllClassNodeFromJDK() throws Exception {
-        FileSystem fileSystem = FileSystems.getFileSystem(URI.create("jrt:/"));
-        PathMatcher matcher = fileSystem.getPathMatcher("glob:**/*.class");
-        Map<String, ClassNode> classNodeMap = new HashMap<>();
-        Files.walkFileTree(fileSystem.getPath("/modules"), new SimpleFileVisitor<>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (matcher.matches(file)) {
-                    ClassReader reader = new ClassReader(Files.newInputStream(file));
-                    ClassNode node = new ClassNode();
-                    reader.accept(node, flag);
+        AnalysisContext ctx = AnalysisContext.current();
+        JdkIndex jdkIndex = JdkIndex.getInstance();
+        Map<String, ClassNode> classNodeMap = new ConcurrentHashMap<>();
+        jdkIndex.getClassNames().toList().parallelStream().forEach(cName -> {
+            try {
+                byte[] bytes = jdkIndex.readClass(cName);
+                if (bytes != null) {
+                    ClassNode node = parse(bytes);
                     classNodeMap.put(x(node.name), node);
                 }
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) {
-                return FileVisitResult.CONTINUE;
+            } catch (Exception e) {
+                System.out.println("[-] can not load class: " + cName + ", Error: " + e.getMessage());
             }
         });
         if (!classNodeMap.isEmpty()) {
-            fileNodesMap.computeIfAbsent(jdkFileName, k -> newCaffeineMap()).putAll(classNodeMap);
+            ctx.fileNodesMap.computeIfAbsent(jdkFileName, k -> newCaffeineMap(ctx, jdkFileName)).putAll(classNodeMap);
         }
         return classNodeMap;
     }
 
     public static void printSize() {
+        AnalysisContext ctx = AnalysisContext.current();
         AtomicLong sum = new AtomicLong(0);
-        fileNodesMap.values().forEach(x -> sum.addAndGet(x.estimatedSize()));
+        ctx.fileNodesMap.values().forEach(x -> sum.addAndGet(x.estimatedSize()));
         System.out.println("fileNodesMap size: " + sum);
-        System.out.println("loadFailedClasses size: " + loadFailedClasses.size());
-        System.out.println("loadFailedJarFiles size: " + loadFailedJarFiles.size());
+        System.out.println("classBytesStore size: " + ctx.classBytesStore.estimatedSize());
+        System.out.println("classSummaries size: " + ctx.classSummaries.size());
+        System.out.println("loadFailedClasses size: " + ctx.loadFailedClasses.size());
+        System.out.println("loadFailedJarFiles size: " + ctx.loadFailedClassJarFiles.size());
     }
 
 }
@@ -0,0 +1,96 @@
+package org.observer.utils;
+
+import jdk.internal.org.objectweb.asm.ClassReader;
+import jdk.internal.org.objectweb.asm.ClassVisitor;
+import jdk.internal.org.objectweb.asm.MethodVisitor;
+import jdk.internal.org.objectweb.asm.Opcodes;
+import jdk.internal.org.objectweb.asm.tree.ClassNode;
+
+import java.util.*;
+
+/**
+ * 类摘要：只包含类名、访问标志、父类、接口及方法签名，以 SKIP_CODE | SKIP_DEBUG 读取
+ * <p>
+ * 用于继承关系及 isInterface 判断，避免为此加载包含方法体的完整 ClassNode
+ */
+public class ClassSummary {
+    private final static int flag = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    // a/b/C
+    public final String name;
+    public final int access;
+    public final String superName;
+    public final List<String> interfaces;
+    public final List<MethodSummary> methods;
+
+    public ClassSummary(String name, int access, String superName, List<String> interfaces, List<MethodSummary> methods) {
+        this.name = name;
+        this.access = access;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.methods = methods;
+    }
+
+    public static ClassSummary read(byte[] bytes) {
+        SummaryVisitor visitor = new SummaryVisitor();
+        new ClassReader(bytes).accept(visitor, flag);
+        return visitor.toSummary();
+    }
+
+    public static ClassSummary of(ClassNode classNode) {
+        return new ClassSummary(classNode.name, classNode.access, classNode.superName,
+                List.copyOf(classNode.interfaces),
+                classNode.methods.stream().map(m -> new MethodSummary(m.name, m.desc, m.access)).toList());
+    }
+
+    public boolean isInterface() {
+        return (access & Opcodes.ACC_INTERFACE) != 0;
+    }
+
+    // fDesc 为 "null" 时只匹配方法名
+    public boolean hasMethod(String fName, String fDesc) {
+        return methods.stream().anyMatch(method -> method.name.equals(fName) && (fDesc.equals("null") || method.desc.equals(fDesc)));
+    }
+
+    public static class MethodSummary {
+        public final String name;
+        public final String desc;
+        public final int access;
+
+        public MethodSummary(String name, String desc, int access) {
+            this.name = name;
+            this.desc = desc;
+            this.access = access;
+        }
+    }
+
+    private static class SummaryVisitor extends ClassVisitor {
+        private String name;
+        private int access;
+        private String superName;
+        private List<String> interfaces;
+        private final List<MethodSummary> methods = new ArrayList<>();
+
+        private SummaryVisitor() {
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.name = name;
+            this.access = access;
+            this.superName = superName;
+            this.interfaces = interfaces == null ? List.of() : List.of(interfaces);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            methods.add(new MethodSummary(name, descriptor, access));
+            return null;
+        }
+
+        private ClassSummary toSummary() {
+            return new ClassSummary(name, access, superName, interfaces, List.copyOf(methods));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.observer.utils;
+
+import java.util.*;
+
+/**
+ * jar 反向依赖图：file 编号后按强连通分量(SCC)缩点，预先计算每个分量的反向依赖闭包(BitSet)
+ * <p>
+ * 边 A -> B 表示 B 依赖 A(与 DependencyUtil 向上搜索的方向一致)，同一 SCC 内的 jar 闭包相同，
+ * 查询 getCallDependencies 时只需对闭包、missPomFiles、loadFailedJarFiles 做按位运算
+ * <p>
+ * 基于构建时的注册表，resolve 新的 jar 或恢复快照后失效，下次使用时重新构建
+ */
+public class DependencyGraph {
+    // id -> file
+    private final List<String> files = new ArrayList<>();
+    private final Map<String, Integer> fileIds = new HashMap<>();
+    // id -> 所在分量
+    private int[] components;
+    // 分量 -> 反向依赖闭包(包含自身)
+    private final List<BitSet> closures = new ArrayList<>();
+    private final BitSet missPomBits = new BitSet();
+    private final BitSet loadFailedBits = new BitSet();
+    private final BitSet allBits = new BitSet();
+
+    public static DependencyGraph current() {
+        AnalysisContext ctx = AnalysisContext.current();
+        DependencyGraph graph = ctx.dependencyGraph;
+        if (graph == null) {
+            synchronized (ctx) {
+                graph = ctx.dependencyGraph;
+                if (graph == null) {
+                    graph = build();
+                    ctx.dependencyGraph = graph;
+                }
+            }
+        }
+        return graph;
+    }
+
+    public static DependencyGraph build() {
+        AnalysisContext ctx = AnalysisContext.current();
+        DependencyGraph graph = new DependencyGraph();
+        ctx.fileArtifactIdMap.keySet().forEach(graph::id);
+        ctx.missArtifactIdFiles.forEach(graph::id);
+        ctx.missPomFiles.forEach(graph::id);
+        ctx.filePkgNameMap.keySet().forEach(graph::id);
+        ctx.fileArtifactIdGroupMap.keySet().forEach(graph::id);
+        ctx.artifactIdGroupFileMap.values().forEach(files -> files.forEach(graph::id));
+        ctx.loadFailedJarFiles.forEach(graph::id);
+
+        ctx.missPomFiles.forEach(file -> graph.missPomBits.set(graph.id(file)));
+        ctx.loadFailedJarFiles.forEach(file -> graph.loadFailedBits.set(graph.id(file)));
+        ctx.missArtifactIdFiles.forEach(file -> graph.allBits.set(graph.id(file)));
+        ctx.fileArtifactIdMap.keySet().forEach(file -> graph.allBits.set(graph.id(file)));
+
+        // 缺失 pom.xml 时按 pkgName 前缀匹配 artifactId，排序后二分查找代替全量 startsWith
+        TreeMap<String, Set<String>> sortedArtifactIds = new TreeMap<>(ctx.artifactIdGroupFileMap);
+        int size = graph.files.size();
+        int[][] edges = new int[size][];
+        for (int id = 0; id < size; id++) {
+            String file = graph.files.get(id);
+            BitSet next = new BitSet();
+            String artifactId = ctx.fileArtifactIdMap.get(file);
+            Set<String> dependents = artifactId != null ? ctx.artifactIdGroupFileMap.get(artifactId) : null;
+            if (dependents != null) {
+                dependents.forEach(f -> next.set(graph.fileIds.get(f)));
+            } else if (artifactId == null || ctx.missPomFiles.contains(file)) {
+                for (String pkgName : ctx.filePkgNameMap.getOrDefault(file, Set.of())) {
+                    sortedArtifactIds.subMap(pkgName, pkgName + Character.MAX_VALUE).values()
+                            .forEach(files -> files.forEach(f -> next.set(graph.fileIds.get(f))));
+                }
+            }
+            edges[id] = next.stream().toArray();
+        }
+        graph.condense(edges);
+        if (System.getProperty("log.print", "false").equals("true")) {
+            System.out.printf("[+] Build DependencyGraph, files: %s, components: %s%n", size, graph.closures.size());
+        }
+        return graph;
+    }
+
+    private int id(String file) {
+        Integer id = fileIds.get(file);
+        if (id == null) {
+            id = files.size();
+            files.add(file);
+            fileIds.put(file, id);
+        }
+        return id;
+    }
+
+    /**
+     * 非递归 Tarjan：分量按逆拓扑序产生，产生时其后继分量的闭包均已计算完成
+     */
+    private void condense(int[][] edges) {
+        int size = edges.length;
+        components = new int[size];
+        Arrays.fill(components, -1);
+        int[] index = new int[size];
+        int[] lowLink = new int[size];
+        int[] edgeCursor = new int[size];
+        Arrays.fill(index, -1);
+        boolean[] onStack = new boolean[size];
+        Deque<Integer> stack = new ArrayDeque<>();
+        Deque<Integer> callStack = new ArrayDeque<>();
+        int counter = 0;
+        for (int root = 0; root < size; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            callStack.push(root);
+            index[root] = lowLink[root] = counter++;
+            stack.push(root);
+            onStack[root] = true;
+            while (!callStack.isEmpty()) {
+                int v = callStack.peek();
+                if (edgeCursor[v] < edges[v].length) {
+                    int w = edges[v][edgeCursor[v]++];
+                    if (index[w] == -1) {
+                        index[w] = lowLink[w] = counter++;
+                        stack.push(w);
+                        onStack[w] = true;
+                        callStack.push(w);
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], index[w]);
+                    }
+                    continue;
+                }
+                callStack.pop();
+                if (!callStack.isEmpty()) {
+                    int parent = callStack.peek();
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                }
+                if (lowLink[v] == index[v]) {
+                    int component = closures.size();
+                    BitSet closure = new BitSet(size);
+                    List<Integer> members = new ArrayList<>();
+                    int w;
+                    do {
+                        w = stack.pop();
+                        onStack[w] = false;
+                        components[w] = component;
+                        closure.set(w);
+                        members.add(w);
+                    } while (w != v);
+                    for (int member : members) {
+                        for (int next : edges[member]) {
+                            if (components[next] != component) {
+                                closure.or(closures.get(components[next]));
+                            }
+                        }
+                    }
+                    closures.add(closure);
+                }
+            }
+        }
+    }
+
+    /**
+     * 依赖 file 的所有 jar(包含 file 本身)，file 不在图中时返回 null
+     */
+    public BitSet getDependents(String file) {
+        Integer id = fileIds.get(file);
+        return id == null ? null : (BitSet) closures.get(components[id]).clone();
+    }
+
+    public BitSet getMissPomBits() {
+        return (BitSet) missPomBits.clone();
+    }
+
+    public BitSet getLoadFailedBits() {
+        return (BitSet) loadFailedBits.clone();
+    }
+
+    // 等同 DependencyUtil.getAllDependencies
+    public BitSet getAllBits() {
+        return (BitSet) allBits.clone();
+    }
+
+    public Integer getId(String file) {
+        return fileIds.get(file);
+    }
+
+    public String getFile(int id) {
+        return files.get(id);
+    }
+
+    // 按编号顺序转换为 file 集合
+    public Set<String> toFiles(BitSet bits) {
+        Set<String> results = new LinkedHashSet<>();
+        bits.stream().forEach(id -> results.add(files.get(id)));
+        return results;
+    }
+
+    public int getComponentCount() {
+        return closures.size();
+    }
+}
@@ -1,7 +1,5 @@
 package org.observer.utils;
 
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
 import jdk.internal.org.objectweb.asm.Opcodes;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.model.Model;
@@ -10,18 +8,14 @@ import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -33,104 +27,95 @@ import static org.observer.utils.StringUtil.y;
 
 // 用于解析 Jar 包并提取 packageName 及 dependencies
 public class DependencyUtil {
-    /**
-     * dependency(groupId.artifactId) -> file 映射
-     * artifactId 被哪些文件所依赖
-     */
-    private final static Map<String, Set<String>> artifactIdGroupFileMap = new ConcurrentHashMap<>();
-    // jar 依赖哪些 artifactId
-    private final static Map<String, Set<String>> fileArtifactIdGroupMap = new ConcurrentHashMap<>();
-    // 不包含 pom.xml 文件的 jar 包，无法确认哪些包依赖该文件
-    // 包含无法正确解析出 artifactId 的 jar 包
-    private final static Set<String> missArtifactIdFiles = new HashSet<>();
-    // 缓存缺失 pom.xml 的 jar
-    private final static Set<String> missPomFiles = new HashSet<>();
-    // packageName(和 groupId.artifactId 可能一致) -> file 映射
-    private final static Map<String, Set<String>> pkgNameFileMap = new HashMap<>();
-    // file -> groupId.artifactId 映射
-    private final static Map<String, String> fileArtifactIdMap = new HashMap<>();
-    // file 包含哪些 packageName
-    private final static Map<String, Set<String>> filePkgNameMap = new HashMap<>();
-    // 缓存加载失败的 JarFile
-    private final static Set<String> loadFailedJarFiles = new HashSet<>();
-    // 记录无法加载的类
-    private final static Set<String> loadPathFailedClasses = new HashSet<>();
-    // 缓存 call -> 父类/接口 类名映射
-    private final static Map<Object, String> callOwnerCache = new ConcurrentHashMap<>();
-    // 缓存 relatedDependencies 解析结果
-    private final static Map<Object, Set<String>> relatedDependenciesCache = new ConcurrentHashMap<>();
-    // 存储 lib 中 /rt.jar jdk 文件，后续用于排除
-    private static String jdkFilePath = null;
-    // 缓存 class -> 所在文件位置 映射
-    private final static LoadingCache<String, String> clsNameFileMap = Caffeine.newBuilder()
-            .expireAfterAccess(Duration.ofMinutes(5))
-            .expireAfterWrite(Duration.ofMinutes(2))
-            .initialCapacity(300)
-            .maximumSize(1000)
-            .build(DependencyUtil::getJarPathByClassName);
+    // 注册表及缓存均位于 AnalysisContext 中
     private final static MavenXpp3Reader reader = new MavenXpp3Reader();
-    private final static int minCommonPrefixLen = 2;
     private final static Pattern artifactIdPattern = Pattern.compile("^[\\w.-]+$");
-    private static int loadedJarCount = 0;
     public final static Pattern antFilePattern = Pattern.compile("^([\\w-.]+)_([\\w-]+)-((\\d+\\.\\d+(\\.\\d+)*|\\d+)[\\w-+.]*\\.jar)$");
 
+    /**
+     * 优先从 snapshot 中恢复解析结果，快照失效时重新解析并保存
+     */
+    public static void resolveDir(String dir, String snapshot) throws Exception {
+        if (SnapshotUtil.load(dir, snapshot)) {
+            return;
+        }
+        resolveDir(dir);
+        SnapshotUtil.save(dir, snapshot);
+    }
+
     public static void resolveDir(String dir) throws Exception {
+        AnalysisContext ctx = AnalysisContext.current();
         if (!new File(dir).isDirectory()) {
             throw new RuntimeException(String.format("%s must be dir", dir));
         }
         try (Stream<Path> entries = Files.walk(Paths.get(dir))) {
-            entries.filter(f -> f.toFile().getName().endsWith(".jar")).forEach(f -> {
+            entries.filter(f -> ArchiveUtil.isArchive(f.toFile().getName())).forEach(f -> {
                 try {
-                    resolve(f.toString());
-                    loadedJarCount += 1;
+                    // fat jar / war 展开为内嵌 jar 分别解析
+                    for (String file : ArchiveUtil.expand(f.toString())) {
+                        resolve(file);
+                        ctx.loadedJarCount.incrementAndGet();
+                    }
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
             });
         }
-        System.out.println("[!] loadedJar Count: " + loadedJarCount);
-        System.out.println("[!] missArtifactIdFiles count: " + missArtifactIdFiles.size());
-        System.out.println("[!] missPomFiles count: " + missPomFiles.size());
+        System.out.println("[!] loadedJar Count: " + ctx.loadedJarCount.get());
+        System.out.println("[!] missArtifactIdFiles count: " + ctx.missArtifactIdFiles.size());
+        System.out.println("[!] missPomFiles count: " + ctx.missPomFiles.size());
+        System.out.println("[!] duplicateJar count: " + ctx.duplicateFileMap.size());
         System.out.println("[+] Resolve Dependencies Dir Successfully");
     }
 
     // 通过 pom.xml 建立 packageName -> dependencies 和 packageName -> files 映射
     public static void resolve(String file) throws Exception {
-        try (JarFile jarFile = new JarFile(file)) {
+        AnalysisContext ctx = AnalysisContext.current();
+        // 注册表发生变化，依赖图下次使用时重新构建
+        ctx.dependencyGraph = null;
+        try (Archive jarFile = ArchiveUtil.open(file)) {
+            // 只遍历一次 central directory，后续加载 ClassNode 时复用
+            JarScan scan = JarScan.of(file, jarFile);
             // 不包含 .class 文件直接跳过处理
-            if (jarFile.stream().noneMatch(f -> f.getName().endsWith(".class"))) {
-                loadFailedJarFiles.add(file);
+            if (!scan.hasClass()) {
+                ctx.loadFailedJarFiles.add(file);
+                return;
+            }
+            // 内容与已解析 jar 一致时只记录映射，避免重复搜索同一份字节码
+            String origin = ctx.digestFileMap.putIfAbsent(scan.digest, file);
+            if (origin != null && !origin.equals(file)) {
+                ctx.duplicateFileMap.put(file, origin);
+                if (System.getProperty("log.print", "false").equals("true")) {
+                    System.out.println("[!] duplicate jar: " + file + " == " + origin);
+                }
                 return;
             }
             if (isJDK(file)) {
-                jdkFilePath = file;
-                System.out.println("[!] Found rt.jar: " + jdkFilePath);
+                ctx.jdkFilePath = file;
+                System.out.println("[!] Found rt.jar: " + ctx.jdkFilePath);
             }
             AtomicBoolean pomExist = new AtomicBoolean(false);
             AtomicReference<String> packageName = new AtomicReference<>(null);
             // TODO: 存在两个 pom.xml 的情况
-            jarFile.stream().filter(f -> {
-                String name = f.getName();
-                return name.startsWith("META-INF") && name.endsWith("pom.xml");
-            }).findFirst().ifPresent(xml -> {
+            Optional.ofNullable(scan.pomEntry).ifPresent(xml -> {
                 try {
                     pomExist.set(true);
                     Model model = reader.read(jarFile.getInputStream(xml));
                     String groupId = model.getGroupId() == null ? model.getParent().getGroupId() : model.getGroupId();
                     String artifactId = String.format("%s.%s", groupId, model.getArtifactId());
-                    fileArtifactIdMap.put(file, artifactId);
+                    ctx.fileArtifactIdMap.put(file, artifactId);
                     // 判断 artifactId 与 packageName 是否一致
-                    if ((jarFile.getJarEntry(y(artifactId)) != null)) {
+                    if ((jarFile.getEntry(y(artifactId)) != null)) {
                         packageName.set(artifactId);
                         addPkgFileMap(artifactId, file);
                     }
                     // 构建依赖链
                     Set<String> dependencies = model.getDependencies().stream().map(dep -> String.format("%s.%s", dep.getGroupId().equals("${project.groupId}") ? groupId : dep.getGroupId(), dep.getArtifactId())).collect(Collectors.toSet());
                     dependencies.forEach(dep -> {
-                        Set<String> files = artifactIdGroupFileMap.computeIfAbsent(dep, k -> new HashSet<>());
+                        Set<String> files = ctx.artifactIdGroupFileMap.computeIfAbsent(dep, k -> ConcurrentHashMap.newKeySet());
                         files.add(file);
                     });
-                    fileArtifactIdGroupMap.put(file, dependencies);
+                    ctx.fileArtifactIdGroupMap.put(file, dependencies);
                 } catch (IOException | XmlPullParserException e) {
                     throw new RuntimeException(e);
                 }
@@ -144,8 +129,8 @@ public class DependencyUtil {
            其他 jar 包与该文件的依赖的关系(dependencyFileMap)
          */
             if (!pomExist.get()) {
-                missPomFiles.add(jarFile.getName());
-                Manifest manifest = jarFile.getManifest();
+                ctx.missPomFiles.add(jarFile.getName());
+                Manifest manifest = scan.hasManifest ? jarFile.getManifest() : null;
                 String artifactId = null;
                 if (manifest != null) {
                 /*
@@ -189,12 +174,12 @@ public class DependencyUtil {
                     }
                 }
                 if (isValidArtifactId(artifactId)) {
-                    fileArtifactIdMap.put(file, artifactId);
+                    ctx.fileArtifactIdMap.put(file, artifactId);
                 } else {
                     if (System.getProperty("log.print", "false").equals("true")) {
                         System.out.println("[-] artifactId is not valid: " + artifactId + ", " + file);
                     }
-                    missArtifactIdFiles.add(file);
+                    ctx.missArtifactIdFiles.add(file);
                 }
             }
 
@@ -214,77 +199,69 @@ public class DependencyUtil {
 
          */
             if (packageName.get() == null) {
-                List<String> groups = new ArrayList<>();
-                jarFile.stream().filter(f -> {
-                    String name = x(f.getName());
-                    // 排除特例：log4j-api-2.13.2.jar!/META-INF/versions/9/module-info.class
-                    return !name.contains("META-INF.") && name.endsWith(".class") &&
-                            groups.stream().noneMatch(name::startsWith) &&
-                            new File(f.getName()).getParentFile() != null;
-                }).forEach(f -> {
-                    String path = x(new File(f.getName()).getParentFile().getPath());
-                    Optional<String> result = groups.stream().map(group -> {
-                        String prefix = StringUtils.getCommonPrefix(group, path);
-                        // prefix 不会返回 null，返回 ""
-                        if (prefix.isEmpty()) {
-                            return path;
-                        } else if (prefix.split("\\.").length > minCommonPrefixLen) {
-                            return prefix;
-                        }
-                        return null;
-                    }).filter(Objects::nonNull).findFirst();
-                    if (result.isPresent()) {
-                        groups.removeAll(groups.stream().filter(group -> group.startsWith(result.get())).toList());
-                        groups.add(result.get());
-                    } else {
-                        groups.add(path);
-                    }
-                });
-                groups.forEach(pkgName -> addPkgFileMap(x(pkgName), file));
+                scan.getPkgGroups().forEach(pkgName -> addPkgFileMap(pkgName, file));
             }
         }
     }
 
+    /**
+     * 获取与 file 内容一致的所有文件(包含 file 本身)，用于将搜索结果映射回所有重复的 jar
+     */
+    public static Set<String> getSameContentFiles(String file) {
+        AnalysisContext ctx = AnalysisContext.current();
+        String origin = ctx.duplicateFileMap.getOrDefault(file, file);
+        Set<String> files = new TreeSet<>();
+        files.add(origin);
+        ctx.duplicateFileMap.forEach((k, v) -> {
+            if (v.equals(origin)) {
+                files.add(k);
+            }
+        });
+        return files;
+    }
+
     private static boolean isValidArtifactId(String artifactId) {
         return artifactId != null && artifactId.contains(".") && artifactIdPattern.matcher(artifactId).matches();
     }
 
     // 根据 pkgName 获取所在的文件，应返回最长匹配结果，返回集合的原因在于存在同前缀的情况
     public static Set<String> getFilesByPkgName(String owner) {
-        if (pkgNameFileMap.isEmpty()) {
+        AnalysisContext ctx = AnalysisContext.current();
+        if (ctx.pkgNameFileMap.isEmpty()) {
             throw new UnsupportedOperationException("pkgNameFileMap is empty");
         }
         AtomicInteger maxLen = new AtomicInteger();
         Set<String> fileList = new HashSet<>();
-        pkgNameFileMap.entrySet().stream().filter(
+        ctx.pkgNameFileMap.entrySet().stream().filter(
                 entry -> owner.startsWith(entry.getKey())
         ).forEach(entry -> {
             String pkgName = entry.getKey();
             if (pkgName.length() > maxLen.get()) {
                 fileList.clear();
-                fileList.addAll(pkgNameFileMap.get(pkgName));
+                fileList.addAll(ctx.pkgNameFileMap.get(pkgName));
                 maxLen.set(pkgName.length());
             } else if (pkgName.length() == maxLen.get()) {
-                fileList.addAll(pkgNameFileMap.get(pkgName));
+                fileList.addAll(ctx.pkgNameFileMap.get(pkgName));
             }
         });
         return fileList;
     }
 
     public static String getJarPathFromCache(String cName) {
-        return clsNameFileMap.get(cName);
+        AnalysisContext ctx = AnalysisContext.current();
+        return ctx.clsNameFileMap.get(cName);
     }
 
-    private static String getJarPathByClassName(String cName) {
+    static String getJarPathByClassName(String cName) {
+        AnalysisContext ctx = AnalysisContext.current();
         String filePath = null;
-        if (!loadPathFailedClasses.contains(cName)) {
-            try {
-                Class.forName(cName, false, ClassLoader.getSystemClassLoader().getParent());
+        if (!ctx.loadPathFailedClasses.contains(cName)) {
+            if (JdkIndex.getInstance().contains(cName)) {
                 filePath = ClassNodeUtil.jdkFileName;
-            } catch (ClassNotFoundException ignored) {
+            } else {
                 filePath = DependencyUtil.getFilesByPkgName(cName).stream().filter(path -> {
-                    try (URLClassLoader urlClassLoader = new URLClassLoader(new URL[]{new File(path).toURI().toURL()})) {
-                        return urlClassLoader.getResourceAsStream(y(cName) + ".class") != null;
+                    try {
+                        return ArchiveUtil.containsEntry(path, y(cName) + ".class");
                     } catch (Exception e) {
                         System.out.println("xxx: " + path + ", " + cName);
                         return false;
@@ -294,7 +271,7 @@ public class DependencyUtil {
                     if (System.getProperty("log.print", "false").equals("true")) {
                         System.out.println("[-] can not get file by class name: " + cName);
                     }
-                    loadPathFailedClasses.add(cName);
+                    ctx.loadPathFailedClasses.add(cName);
                 }
             }
         }
@@ -308,39 +285,67 @@ public class DependencyUtil {
         if (!MethodUtil.isValidMethod(callItems[1])) {
             return null;
         }
-        if (callOwnerCache.containsKey(callee)) {
-            String owner = callOwnerCache.get(callee);
-            return owner.isEmpty() ? null : owner;
+        DispatchTable table = DispatchTable.current();
+        String tableOwner = table != null ? table.getUpgradeOwner(callItems[0], callItems[1], callItems[2]) : null;
+        if (tableOwner != null) {
+            return tableOwner.isEmpty() ? null : tableOwner;
         }
-        String callOwner = HierarchyUtil.getMatchSuperName(callItems[0], callItems[1], callItems[2], true);
-        callOwnerCache.put(callee, callOwner == null ? "" : callOwner);
-        return callOwner;
+        // 查询 callItems[0] 的方法解析表
+        return HierarchyUtil.getMatchSuperName(callItems[0], callItems[1], callItems[2], true);
     }
 
-    // 获取依赖 call 所在 jar 包的依赖项
+    // 获取依赖 call 所在 jar 包的依赖项，public 方法默认为常量池引用 owner 的 jar，scope.mode=pom 时为 DependencyGraph 预先计算的闭包
     public static Set<String> getCallDependencies(String finalCall) {
+        AnalysisContext ctx = AnalysisContext.current();
         String[] callItems = finalCall.split("#");
 
         int fAccess = Integer.parseInt(callItems[3]);
         boolean isPublic = (fAccess & Opcodes.ACC_PUBLIC) != 0;
+        boolean skipJdk = System.getProperty("jdk.scan", "false").equals("false") && ctx.jdkFilePath != null;
 
         String jarPath = getJarPathFromCache(callItems[0]);
-        Set<String> retSet = new HashSet<>();
-        if (jarPath != null) {
-            if (isPublic) {
-                if (isJDK(jarPath)) {
-                    retSet.addAll(getAllDependencies());
-                } else {
-                    retSet.addAll(relatedDependencies(jarPath, false));
-                    retSet.addAll(missPomFiles);
-                }
-            } else {
+        Set<String> retSet = new LinkedHashSet<>();
+        if (jarPath == null) {
+            return retSet;
+        }
+        if (!isPublic) {
+            if (!ctx.loadFailedJarFiles.contains(jarPath) && !(skipJdk && jarPath.equals(ctx.jdkFilePath))) {
                 retSet.add(jarPath);
             }
-            retSet.removeAll(loadFailedJarFiles);
-            if (System.getProperty("jdk.scan", "false").equals("false") && jdkFilePath != null) {
-                retSet.remove(jdkFilePath);
+            return retSet;
+        }
+        DependencyGraph graph = DependencyGraph.current();
+        BitSet bits;
+        if (JarRefIndex.isEnabled()) {
+            // 引用 owner 或其子类的 jar，JDK 类同样适用
+            bits = JarRefIndex.current().getScope(callItems[0]);
+            // lib 中的 rt.jar 不建立引用索引，jdk.scan 时整体保留
+            Integer jdkId = !skipJdk && ctx.jdkFilePath != null ? graph.getId(ctx.jdkFilePath) : null;
+            if (jdkId != null) {
+                bits.set(jdkId);
             }
+        } else if (isJDK(jarPath)) {
+            bits = graph.getAllBits();
+        } else {
+            bits = graph.getDependents(jarPath);
+            if (bits == null) {
+                // 不在图中的 jar 只包含自身
+                bits = new BitSet();
+                if (!ctx.loadFailedJarFiles.contains(jarPath)) {
+                    retSet.add(jarPath);
+                }
+            }
+            bits.or(graph.getMissPomBits());
+        }
+        bits.andNot(graph.getLoadFailedBits());
+        Integer jdkId = skipJdk ? graph.getId(ctx.jdkFilePath) : null;
+        if (jdkId != null) {
+            bits.clear(jdkId);
+        }
+        retSet.addAll(graph.toFiles(bits));
+        // lib 中不存在 rt.jar 时，JDK 内部的 caller 从 JdkCallerIndex 中获取
+        if (JdkCallerIndex.isEnabled() && ctx.jdkFilePath == null && jarPath.equals(ClassNodeUtil.jdkFileName)) {
+            retSet.add(ClassNodeUtil.jdkFileName);
         }
         return retSet;
     }
@@ -350,67 +355,30 @@ public class DependencyUtil {
     }
 
     // 待扫描的 lib 应只存在于 unCertainFiles 或 fileArtifactMap 中
-    private static Set<String> getAllDependencies() {
+    static Set<String> getAllDependencies() {
+        AnalysisContext ctx = AnalysisContext.current();
         Set<String> retSet = new HashSet<>();
-        retSet.addAll(missArtifactIdFiles);
-        retSet.addAll(fileArtifactIdMap.keySet());
+        retSet.addAll(ctx.missArtifactIdFiles);
+        retSet.addAll(ctx.fileArtifactIdMap.keySet());
         return retSet;
     }
 
-    // 递归获取所有相关依赖，down: true 表示向下搜索所有所需的依赖项，false 表示向上搜索依赖当前 Jar 包的依赖项
-    private static Set<String> relatedDependencies(String jarPath, boolean isDown) {
-        if (relatedDependenciesCache.containsKey(jarPath)) {
-            return relatedDependenciesCache.get(jarPath);
-        }
-        Set<String> results = new HashSet<>();
-        collect(jarPath, isDown, results);
-        relatedDependenciesCache.put(jarPath, results);
-        return results;
-    }
-
-    private static void collect(String jarPath, boolean isDown, Set<String> loaded) {
-        if (!loaded.contains(jarPath)) {
-            Set<String> result = new HashSet<>();
-            loaded.add(jarPath);
-            if (isDown) {
-                // 先获取 jar 依赖的 pkgName，再根据 pkgName 获取对应的 Jar，递归获取所有相关依赖
-                result.addAll(fileArtifactIdGroupMap.get(jarPath).stream().map(DependencyUtil::getFilesByPkgName).flatMap(Collection::stream).collect(Collectors.toSet()));
-            } else {
-                // 先获取 jar 的 artifactId，再获取依赖该 artifactId 的依赖项文件，递归获取所有相关依赖
-                String artifactId = fileArtifactIdMap.get(jarPath);
-                Set<String> files = artifactId != null ? artifactIdGroupFileMap.get(artifactId) : null;
-                // artifactId 正确且正确获取对其依赖 jar 包
-                if (files != null) {
-                    result.addAll(files);
-                } else {
-                    if (artifactId == null || missPomFiles.contains(jarPath)) {
-                        filePkgNameMap.get(jarPath).forEach(pkgName -> artifactIdGroupFileMap.keySet().stream().filter(
-                                id -> id.startsWith(pkgName)
-                        ).flatMap(id -> artifactIdGroupFileMap.get(id).stream()).forEach(result::add));
-                    }
-                }
-            }
-            if (!result.isEmpty()) {
-                Set<String> copyResult = new HashSet<>(result);
-                copyResult.removeAll(loaded);
-                copyResult.forEach(f -> collect(f, isDown, loaded));
-            }
-        }
-    }
-
     private static void addPkgFileMap(String pkgName, String file) {
-        filePkgNameMap.computeIfAbsent(file, k -> new HashSet<>()).add(pkgName);
-        pkgNameFileMap.computeIfAbsent(pkgName, k -> new HashSet<>()).add(file);
+        AnalysisContext ctx = AnalysisContext.current();
+        ctx.filePkgNameMap.computeIfAbsent(file, k -> ConcurrentHashMap.newKeySet()).add(pkgName);
+        ctx.pkgNameFileMap.computeIfAbsent(pkgName, k -> ConcurrentHashMap.newKeySet()).add(file);
     }
 
     public static void printSize() {
-        System.out.println("pkgNameFileMap size: " + sum(pkgNameFileMap));
-        System.out.println("dependencyFileMap size: " + sum(artifactIdGroupFileMap));
-        System.out.println("fileDependencyMap size: " + sum(fileArtifactIdGroupMap));
-        System.out.println("unCertainFiles size: " + missArtifactIdFiles.size());
-        System.out.println("loadFailedJarFiles size: " + loadFailedJarFiles.size());
-        System.out.println("callOwnerCache size: " + callOwnerCache.size());
-        System.out.println("clsNameFileMap size: " + clsNameFileMap.estimatedSize());
+        AnalysisContext ctx = AnalysisContext.current();
+        System.out.println("pkgNameFileMap size: " + sum(ctx.pkgNameFileMap));
+        System.out.println("dependencyFileMap size: " + sum(ctx.artifactIdGroupFileMap));
+        System.out.println("fileDependencyMap size: " + sum(ctx.fileArtifactIdGroupMap));
+        System.out.println("unCertainFiles size: " + ctx.missArtifactIdFiles.size());
+        System.out.println("loadFailedJarFiles size: " + ctx.loadFailedJarFiles.size());
+        System.out.println("duplicateFileMap size: " + ctx.duplicateFileMap.size());
+        System.out.println("methodTables size: " + ctx.methodTables.estimatedSize());
+        System.out.println("clsNameFileMap size: " + ctx.clsNameFileMap.estimatedSize());
     }
 
     private static int sum(Map map) {
@@ -0,0 +1,121 @@
+package org.observer.utils;
+
+import jdk.internal.org.objectweb.asm.Opcodes;
+
+import java.util.*;
+
+/**
+ * CHA(class hierarchy analysis) 派发表：基于 lib 中全部类预先计算
+ * 1. 声明类型#方法 -> 重写/实现该方法的类型
+ * 2. 类型#方法 -> upgrade 后所属的接口
+ * <p>
+ * upgrade 及虚调用匹配只需一次查表；sink 声明在接口/父类时，调用点 owner 为任一实现类均视为调用
+ * <p>
+ * -Dcha: 默认 false，开启后首次使用时构建(会加载 lib 中全部 jar)
+ */
+public class DispatchTable {
+    // cName#fName#fDesc -> 重写/实现该方法的类型
+    private final Map<String, Set<String>> overriders = new HashMap<>();
+    // cName#fName -> fDesc，用于 fDesc 为 null 的查询
+    private final Map<String, Set<String>> descs = new HashMap<>();
+    // cName#fName#fDesc -> upgrade 后的接口，无接口时为 ""
+    private final Map<String, String> upgradeOwners = new HashMap<>();
+
+    public static boolean isEnabled() {
+        return System.getProperty("cha", "false").equals("true");
+    }
+
+    // 未开启时返回 null
+    public static DispatchTable current() {
+        if (!isEnabled()) {
+            return null;
+        }
+        AnalysisContext ctx = AnalysisContext.current();
+        DispatchTable table = ctx.dispatchTable;
+        if (table == null) {
+            synchronized (ctx) {
+                table = ctx.dispatchTable;
+                if (table == null) {
+                    table = build();
+                    ctx.dispatchTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    public static DispatchTable build() {
+        AnalysisContext ctx = AnalysisContext.current();
+        ClassNodeUtil.indexAll();
+        DispatchTable table = new DispatchTable();
+        Map<String, Set<String>> superTypesCache = new HashMap<>();
+        List<ClassSummary> summaries = new ArrayList<>(ctx.classSummaries.values());
+        for (ClassSummary summary : summaries) {
+            String cName = StringUtil.x(summary.name);
+            Set<String> superTypes = getSuperTypes(cName, superTypesCache);
+            for (ClassSummary.MethodSummary method : summary.methods) {
+                if ((method.access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) != 0 || method.name.startsWith("<")) {
+                    continue;
+                }
+                for (String superType : superTypes) {
+                    ClassSummary superSummary = ClassNodeUtil.getClassSummary(superType);
+                    if (superSummary != null && superSummary.hasMethod(method.name, method.desc)) {
+                        table.overriders.computeIfAbsent(key(superType, method.name, method.desc), k -> new HashSet<>()).add(cName);
+                        table.descs.computeIfAbsent(superType + "#" + method.name, k -> new HashSet<>()).add(method.desc);
+                    }
+                }
+                String owner = HierarchyUtil.getMatchSuperName(cName, method.name, method.desc, true);
+                table.upgradeOwners.put(key(cName, method.name, method.desc), owner == null ? "" : owner);
+            }
+        }
+        System.out.printf("[+] Build DispatchTable, classes: %s, methods: %s%n", summaries.size(), table.upgradeOwners.size());
+        return table;
+    }
+
+    // 所有父类及接口(不包含自身)
+    private static Set<String> getSuperTypes(String cName, Map<String, Set<String>> cache) {
+        Set<String> superTypes = cache.get(cName);
+        if (superTypes != null) {
+            return superTypes;
+        }
+        superTypes = new LinkedHashSet<>();
+        // 先占位，避免异常的循环继承
+        cache.put(cName, superTypes);
+        ClassSummary summary = ClassNodeUtil.getClassSummary(cName);
+        if (summary != null) {
+            List<String> parents = new ArrayList<>(summary.interfaces);
+            if (summary.superName != null) {
+                parents.add(summary.superName);
+            }
+            for (String parent : parents) {
+                String parentName = StringUtil.x(parent);
+                superTypes.add(parentName);
+                superTypes.addAll(getSuperTypes(parentName, cache));
+            }
+        }
+        return superTypes;
+    }
+
+    private static String key(String cName, String fName, String fDesc) {
+        return String.format("%s#%s#%s", cName, fName, fDesc);
+    }
+
+    /**
+     * 重写/实现 cName#fName#fDesc 的类型，fDesc 为 null 时合并所有同名方法
+     */
+    public Set<String> getOverriders(String cName, String fName, String fDesc) {
+        if (!fDesc.equals("null")) {
+            return overriders.getOrDefault(key(cName, fName, fDesc), Set.of());
+        }
+        Set<String> results = new HashSet<>();
+        descs.getOrDefault(cName + "#" + fName, Set.of()).forEach(desc -> results.addAll(overriders.get(key(cName, fName, desc))));
+        return results;
+    }
+
+    /**
+     * upgrade 后所属的接口，不属于任何接口时返回 ""，不在表中(如 fDesc 为 null、JDK 类)时返回 null
+     */
+    public String getUpgradeOwner(String cName, String fName, String fDesc) {
+        return upgradeOwners.get(key(cName, fName, fDesc));
+    }
+}
@@ -0,0 +1,185 @@
+package org.observer.utils;
+
+import jdk.internal.org.objectweb.asm.Opcodes;
+import jdk.internal.org.objectweb.asm.Type;
+import jdk.internal.org.objectweb.asm.tree.*;
+import jdk.internal.org.objectweb.asm.tree.analysis.Analyzer;
+import jdk.internal.org.objectweb.asm.tree.analysis.AnalyzerException;
+import jdk.internal.org.objectweb.asm.tree.analysis.Frame;
+import jdk.internal.org.objectweb.asm.tree.analysis.SourceInterpreter;
+import jdk.internal.org.objectweb.asm.tree.analysis.SourceValue;
+
+import java.util.*;
+
+/**
+ * 参数流剪枝：基于 ASM Analyzer + SourceInterpreter 判断调用点传入 sink 的参数是否来自 caller 的参数或字段
+ * <p>
+ * 如 eval("1+1")、exec("ls") 等参数均为常量的调用点，继续向上回溯没有意义，此时 caller 作为
+ * "[const] " 前缀的叶子节点保留，不再展开
+ * <p>
+ * 判断为保守估计，以下情况均视为参数可控：
+ * 1. 参数来源于方法参数、this、字段、new 的对象或数组(无法跟踪后续修改)、无参方法的返回值、异常
+ * 2. caller 中找不到对应的调用点(如调用位于 lambda 中)或分析失败
+ * sink 无参数时判断 receiver
+ * <p>
+ * 只在 sink 层剪枝：上层调用点即使参数均为常量，数据仍可能经由 receiver 的字段传入下层(如 param.m("x") 中 m 读取 this.cmd)
+ * <p>
+ * -Dflow.prune: 默认 false，开启参数流剪枝
+ */
+public class FlowUtil {
+    public final static String constPrefix = "[const] ";
+
+    public static boolean isPruneEnabled() {
+        return System.getProperty("flow.prune", "false").equals("true");
+    }
+
+    /**
+     * caller 中调用 callee 的参数是否可能来自 caller 的参数或字段
+     *
+     * @param caller cName#fName#fDesc#fAccess，fDesc 可为 null
+     * @param callee cName#fName#fDesc#fAccess，fDesc 可为 null
+     */
+    public static boolean isArgumentFlow(String caller, String callee) {
+        String[] callerItems = caller.split("#");
+        String[] calleeItems = callee.split("#");
+        ClassNode classNode = ClassNodeUtil.getClassNodeFromCache(callerItems[0]);
+        if (classNode == null) {
+            return true;
+        }
+        boolean found = false;
+        for (MethodNode methodNode : classNode.methods) {
+            if (!methodNode.name.equals(callerItems[1]) || (!callerItems[2].equals("null") && !methodNode.desc.equals(callerItems[2]))) {
+                continue;
+            }
+            Frame<SourceValue>[] frames;
+            try {
+                frames = new Analyzer<>(new SourceInterpreter()).analyze(classNode.name, methodNode);
+            } catch (AnalyzerException e) {
+                return true;
+            }
+            InsnList ins = methodNode.instructions;
+            for (int i = 0; i < ins.size(); i++) {
+                if (!(ins.get(i) instanceof MethodInsnNode miNode) || !miNode.name.equals(calleeItems[1]) || (!calleeItems[2].equals("null") && !miNode.desc.equals(calleeItems[2]))) {
+                    continue;
+                }
+                found = true;
+                if (frames[i] == null) {
+                    continue;
+                }
+                if (new Tracer(methodNode, frames).isArgumentFlow(miNode, frames[i])) {
+                    return true;
+                }
+            }
+        }
+        return !found;
+    }
+
+    // 在单个方法内沿 SourceValue 回溯值的来源
+    private static class Tracer {
+        private final MethodNode methodNode;
+        private final Frame<SourceValue>[] frames;
+        private final Set<AbstractInsnNode> visited = new HashSet<>();
+
+        private Tracer(MethodNode methodNode, Frame<SourceValue>[] frames) {
+            this.methodNode = methodNode;
+            this.frames = frames;
+        }
+
+        private boolean isArgumentFlow(MethodInsnNode miNode, Frame<SourceValue> frame) {
+            int argCount = Type.getArgumentTypes(miNode.desc).length;
+            int top = frame.getStackSize();
+            if (argCount == 0) {
+                // 无参数时判断 receiver，静态无参方法无法判断
+                return miNode.getOpcode() == Opcodes.INVOKESTATIC || isTainted(frame.getStack(top - 1));
+            }
+            for (int i = top - argCount; i < top; i++) {
+                if (isTainted(frame.getStack(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isTainted(SourceValue value) {
+            // 方法入口的参数及 this 没有来源指令
+            if (value.insns.isEmpty()) {
+                return true;
+            }
+            for (AbstractInsnNode insn : value.insns) {
+                if (isTainted(insn)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isTainted(AbstractInsnNode insn) {
+            if (!visited.add(insn)) {
+                return false;
+            }
+            int index = methodNode.instructions.indexOf(insn);
+            Frame<SourceValue> frame = frames[index];
+            if (frame == null) {
+                return true;
+            }
+            int opcode = insn.getOpcode();
+            switch (opcode) {
+                case Opcodes.ACONST_NULL, Opcodes.ICONST_M1, Opcodes.ICONST_0, Opcodes.ICONST_1, Opcodes.ICONST_2, Opcodes.ICONST_3,
+                        Opcodes.ICONST_4, Opcodes.ICONST_5, Opcodes.LCONST_0, Opcodes.LCONST_1, Opcodes.FCONST_0, Opcodes.FCONST_1,
+                        Opcodes.FCONST_2, Opcodes.DCONST_0, Opcodes.DCONST_1, Opcodes.BIPUSH, Opcodes.SIPUSH, Opcodes.LDC -> {
+                    return false;
+                }
+                // 对象及数组内容可能在之后被修改，无法跟踪
+                case Opcodes.GETFIELD, Opcodes.GETSTATIC, Opcodes.NEW, Opcodes.NEWARRAY, Opcodes.ANEWARRAY, Opcodes.MULTIANEWARRAY -> {
+                    return true;
+                }
+                case Opcodes.ILOAD, Opcodes.LLOAD, Opcodes.FLOAD, Opcodes.DLOAD, Opcodes.ALOAD -> {
+                    return isTainted(frame.getLocal(((VarInsnNode) insn).var));
+                }
+                case Opcodes.ISTORE, Opcodes.LSTORE, Opcodes.FSTORE, Opcodes.DSTORE, Opcodes.ASTORE, Opcodes.DUP, Opcodes.DUP_X1, Opcodes.DUP_X2 -> {
+                    return isTainted(frame.getStack(frame.getStackSize() - 1));
+                }
+                case Opcodes.IINC -> {
+                    return isTainted(frame.getLocal(((IincInsnNode) insn).var));
+                }
+                case Opcodes.DUP2, Opcodes.DUP2_X1, Opcodes.DUP2_X2, Opcodes.SWAP -> {
+                    return isTainted(frame.getStack(frame.getStackSize() - 1)) || (frame.getStackSize() > 1 && isTainted(frame.getStack(frame.getStackSize() - 2)));
+                }
+                default -> {
+                    return isInputTainted(insn, frame);
+                }
+            }
+        }
+
+        // 其余指令：消耗的栈顶值任一可控即可控，没有输入时(如无参方法返回值、catch 的异常)视为可控
+        private boolean isInputTainted(AbstractInsnNode insn, Frame<SourceValue> frame) {
+            int consumed = getConsumedSize(insn);
+            if (consumed <= 0) {
+                return true;
+            }
+            for (int i = frame.getStackSize() - consumed; i < frame.getStackSize(); i++) {
+                if (isTainted(frame.getStack(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // 指令消耗的栈值数量(非 slot 数量)
+        private int getConsumedSize(AbstractInsnNode insn) {
+            int index = methodNode.instructions.indexOf(insn);
+            Frame<SourceValue> next = index + 1 < frames.length ? frames[index + 1] : null;
+            if (insn instanceof MethodInsnNode miNode) {
+                return Type.getArgumentTypes(miNode.desc).length + (miNode.getOpcode() == Opcodes.INVOKESTATIC ? 0 : 1);
+            }
+            if (insn instanceof InvokeDynamicInsnNode indyNode) {
+                return Type.getArgumentTypes(indyNode.desc).length;
+            }
+            if (next == null) {
+                return -1;
+            }
+            // 产生一个值的指令：消耗数量 = 执行前栈大小 - (执行后栈大小 - 1)
+            return frames[index].getStackSize() - next.getStackSize() + 1;
+        }
+    }
+}
@@ -3,42 +3,75 @@ package org.observer.utils;
 import jdk.internal.org.objectweb.asm.tree.ClassNode;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
 
 import static org.observer.utils.StringUtil.x;
+import static org.observer.utils.StringUtil.y;
 
+/**
+ * 继承关系判断，仅依赖 {@link ClassSummary}，不会触发方法体解析
+ */
 public class HierarchyUtil {
     public static String getMatchSuperName(String cName, String fName, String fDesc) {
         return getMatchSuperName(cName, fName, fDesc, false);
     }
 
     public static String getMatchSuperName(String cName, String fName, String fDesc, boolean shouldInterface) {
-        Map<Object, ClassNode> loadedClassNodeMap = new HashMap<>();
-        ClassNode classNode = getMatchSuperClassNode(cName, fName, fDesc, loadedClassNodeMap);
-        return classNode == null ? null : shouldInterface ? ClassNodeUtil.isInterface(classNode) ? x(classNode.name) : null : x(classNode.name);
+        ClassSummary summary = getMethodTable(x(cName)).get(fName + "#" + fDesc);
+        return summary == null ? null : shouldInterface ? summary.isInterface() ? x(summary.name) : null : x(summary.name);
     }
 
-    // 获取 call 所属的父类或接口类名
-    private static ClassNode getMatchSuperClassNode(String cName, String fName, String fDesc, Map<Object, ClassNode> loadedClassNodeMap) {
-        ClassNode classNode = loadedClassNodeMap.getOrDefault(cName, ClassNodeUtil.getClassNodeFromCache(x(cName)));
-        ClassNode parent = null;
-        if (classNode != null) {
-            loadedClassNodeMap.putIfAbsent(cName, classNode);
-            parent = classNode.interfaces.stream().map(interfaceName -> getMatchSuperClassNode(interfaceName, fName, fDesc, loadedClassNodeMap)).filter(Objects::nonNull).findFirst().orElse(null);
-            if (parent == null) {
-                String superName = classNode.superName;
-                if (!superName.equals("java/lang/Object")) {
-                    parent = getMatchSuperClassNode(superName, fName, fDesc, loadedClassNodeMap);
-                }
+    /**
+     * 类的方法解析表：fName#fDesc(及 fName#null) -> 声明该方法的最顶层接口或父类，自底向上由父类型的表合并
+     * <p>
+     * 优先级与逐层查找一致：接口(按声明顺序) > 父类 > 自身
+     */
+    static Map<String, ClassSummary> getMethodTable(String cName) {
+        Map<String, ClassSummary> table = AnalysisContext.current().methodTables.getIfPresent(cName);
+        return table != null ? table : buildMethodTable(cName, new HashSet<>(), new boolean[]{true});
+    }
+
+    /**
+     * 表缓存有上限，被淘汰的父类型表在需要时重新构建
+     *
+     * @param building 当前递归路径上的类型，用于发现异常的循环继承
+     * @param complete 递归中遇到循环继承时置为 false，此时构建的表不完整，不写入缓存
+     */
+    private static Map<String, ClassSummary> buildMethodTable(String cName, Set<String> building, boolean[] complete) {
+        AnalysisContext ctx = AnalysisContext.current();
+        Map<String, ClassSummary> table = ctx.methodTables.getIfPresent(cName);
+        if (table != null) {
+            return table;
+        }
+        if (!building.add(cName)) {
+            complete[0] = false;
+            return Map.of();
+        }
+        try {
+            ClassSummary summary = ClassNodeUtil.getClassSummary(cName);
+            if (summary == null) {
+                return Map.of();
             }
-            if (parent == null) {
-                if (classNode.methods.stream().anyMatch(method -> method.name.equals(fName) && (fDesc.equals("null") || method.desc.equals(fDesc)))) {
-                    return classNode;
-                }
+            table = new HashMap<>();
+            for (ClassSummary.MethodSummary method : summary.methods) {
+                table.put(method.name + "#" + method.desc, summary);
+                table.put(method.name + "#null", summary);
             }
+            if (summary.superName != null && !summary.superName.equals("java/lang/Object")) {
+                table.putAll(buildMethodTable(x(summary.superName), building, complete));
+            }
+            for (int i = summary.interfaces.size() - 1; i >= 0; i--) {
+                table.putAll(buildMethodTable(x(summary.interfaces.get(i)), building, complete));
+            }
+            if (complete[0]) {
+                ctx.methodTables.put(cName, table);
+            }
+            return table;
+        } finally {
+            building.remove(cName);
         }
-        return parent;
     }
 
     // 判断 child 是否是 parent 的子类或实现类
@@ -47,14 +80,14 @@ public class HierarchyUtil {
         if (child.equals(parent)) {
             return true;
         }
-        ClassNode childNode = ClassNodeUtil.getClassNodeFromCache(child);
-        if (childNode == null) {
+        ClassSummary childSummary = ClassNodeUtil.getClassSummary(child);
+        if (childSummary == null) {
             return false;
         }
-        if (childNode.interfaces.stream().anyMatch(name -> isChildrenOrImpl(x(name), parent))) {
+        if (childSummary.interfaces.stream().anyMatch(name -> isChildrenOrImpl(x(name), parent))) {
             return true;
         }
-        String superName = childNode.superName;
+        String superName = childSummary.superName;
         if (superName == null || superName.equals("java/lang/Object")) {
             return false;
         }
@@ -62,12 +95,24 @@ public class HierarchyUtil {
     }
 
     public static boolean isChildren(ClassNode child, ClassNode parent) {
-        if (child == null || child.superName == null || child.superName.equals("java/lang/Object")) {
-            return false;
-        }
-        if (child.superName.equals(parent.name)) {
-            return true;
+        return child != null && isSuperChainContains(child.superName, parent.name);
+    }
+
+    // 判断 child 是否是 parent 的子类，参数为 a.b.C 格式
+    public static boolean isChildren(String child, String parent) {
+        ClassSummary childSummary = ClassNodeUtil.getClassSummary(child);
+        return childSummary != null && isSuperChainContains(childSummary.superName, y(parent));
+    }
+
+    // superName、parentName 为 a/b/C 格式
+    private static boolean isSuperChainContains(String superName, String parentName) {
+        while (superName != null && !superName.equals("java/lang/Object")) {
+            if (superName.equals(parentName)) {
+                return true;
+            }
+            ClassSummary summary = ClassNodeUtil.getClassSummary(x(superName));
+            superName = summary == null ? null : summary.superName;
         }
-        return isChildren(ClassNodeUtil.getClassNodeFromCache(x(child.superName)), parent);
+        return false;
     }
 }
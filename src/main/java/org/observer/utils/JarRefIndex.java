@@ -0,0 +1,150 @@
+package org.observer.utils;
+
+import jdk.internal.org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+
+import static org.observer.utils.StringUtil.x;
+
+/**
+ * jar 引用图：读取 lib 中每个类常量池的 CONSTANT_Class，建立 类 -> 引用该类的 jar(DependencyGraph 编号)
+ * <p>
+ * 调用点的 owner 为方法所属类或其子类，因此调用 owner 方法的 jar 必然引用 owner 或其子类，
+ * 据此替代 pom.xml 推测的依赖范围，缺失 pom.xml 的 jar 不再全部扫描
+ * <p>
+ * -Dscope.mode: 默认 bytecode，pom 时使用 pom.xml 依赖关系确定搜索范围
+ */
+public class JarRefIndex {
+    private final static int CONSTANT_CLASS = 7;
+
+    // className -> 引用该类的 jar
+    private final Map<String, BitSet> refs = new HashMap<>();
+    // 父类/接口 -> lib 中的直接子类/实现类
+    private final Map<String, Set<String>> subTypes = new HashMap<>();
+    // owner -> 搜索范围缓存
+    private final Map<String, BitSet> scopes = new ConcurrentHashMap<>();
+    private final DependencyGraph graph;
+
+    private JarRefIndex(DependencyGraph graph) {
+        this.graph = graph;
+    }
+
+    public static boolean isEnabled() {
+        return System.getProperty("scope.mode", "bytecode").equals("bytecode");
+    }
+
+    public static JarRefIndex current() {
+        AnalysisContext ctx = AnalysisContext.current();
+        DependencyGraph graph = DependencyGraph.current();
+        JarRefIndex index = ctx.jarRefIndex;
+        // 依赖图重新构建后编号失效
+        if (index == null || index.graph != graph) {
+            synchronized (ctx) {
+                index = ctx.jarRefIndex;
+                if (index == null || index.graph != graph) {
+                    index = build(graph);
+                    ctx.jarRefIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    // 读取 lib 中全部 jar(rt.jar 除外)的常量池
+    private static JarRefIndex build(DependencyGraph graph) {
+        AnalysisContext ctx = AnalysisContext.current();
+        JarRefIndex index = new JarRefIndex(graph);
+        int classCount = 0;
+        for (String file : DependencyUtil.getAllDependencies()) {
+            Integer id = graph.getId(file);
+            if (id == null || ctx.loadFailedJarFiles.contains(file) || file.equals(ctx.jdkFilePath)) {
+                continue;
+            }
+            try (Archive archive = ArchiveUtil.open(file)) {
+                // 跳过 META-INF 下的多版本 class
+                List<ZipEntry> entries = JarScan.of(file, archive).classEntries.stream().filter(f -> !f.getName().startsWith("META-INF")).toList();
+                for (ZipEntry entry : entries) {
+                    try (InputStream in = archive.getInputStream(entry)) {
+                        index.add(id, in.readAllBytes());
+                        classCount++;
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("[-] can not read class refs: " + file + ", Error: " + e.getMessage());
+            }
+        }
+        System.out.printf("[+] Build JarRefIndex, classes: %s, referenced: %s%n", classCount, index.refs.size());
+        return index;
+    }
+
+    private void add(int id, byte[] bytes) {
+        ClassReader reader;
+        try {
+            reader = new ClassReader(bytes);
+        } catch (Exception e) {
+            return;
+        }
+        String cName = x(reader.getClassName());
+        if (reader.getSuperName() != null) {
+            subTypes.computeIfAbsent(x(reader.getSuperName()), k -> new HashSet<>()).add(cName);
+        }
+        for (String name : reader.getInterfaces()) {
+            subTypes.computeIfAbsent(x(name), k -> new HashSet<>()).add(cName);
+        }
+        char[] buffer = new char[reader.getMaxStringLength()];
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            // long/double 占用两个槽位，第二个槽位 offset 为 0
+            if (offset == 0 || reader.readByte(offset - 1) != CONSTANT_CLASS) {
+                continue;
+            }
+            String name = reader.readUTF8(offset, buffer);
+            if (!name.startsWith("[")) {
+                refs.computeIfAbsent(x(name), k -> new BitSet()).set(id);
+            }
+        }
+    }
+
+    /**
+     * 可能调用 owner 方法的 jar：引用 owner 或其子类的 jar
+     */
+    public BitSet getScope(String owner) {
+        return (BitSet) scopes.computeIfAbsent(owner, k -> {
+            Set<String> roots = new HashSet<>(Set.of(owner));
+            // JDK 中的子类不在 lib 中，通过类摘要判断
+            if (JdkIndex.getInstance().contains(owner)) {
+                Set<String> candidates = new HashSet<>(refs.keySet());
+                candidates.addAll(subTypes.keySet());
+                candidates.stream().filter(type -> JdkIndex.getInstance().contains(type) && HierarchyUtil.isChildrenOrImpl(type, owner)).forEach(roots::add);
+            }
+            Set<String> types = new HashSet<>(roots);
+            roots.forEach(root -> types.addAll(getSubTypes(root)));
+            BitSet scope = new BitSet();
+            types.forEach(type -> {
+                BitSet bits = refs.get(type);
+                if (bits != null) {
+                    scope.or(bits);
+                }
+            });
+            return scope;
+        }).clone();
+    }
+
+    // lib 中 cName 的所有子类及实现类
+    private Set<String> getSubTypes(String cName) {
+        Set<String> results = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>(List.of(cName));
+        while (!queue.isEmpty()) {
+            for (String sub : subTypes.getOrDefault(queue.poll(), Set.of())) {
+                if (results.add(sub)) {
+                    queue.add(sub);
+                }
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,105 @@
+package org.observer.utils;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.util.*;
+import java.util.zip.ZipEntry;
+
+import static org.observer.utils.StringUtil.x;
+
+/**
+ * 单次遍历 jar central directory 的结果：pom.xml、MANIFEST.MF、class entry、按包目录划分的分区及内容摘要
+ * <p>
+ * DependencyUtil.resolve、ClassNodeUtil、JarRefIndex 均从该结果获取 entry，不再各自遍历 jar；
+ * entry 为脱离 archive 的副本，可通过任一 Archive.getInputStream 按名称读取
+ */
+public class JarScan {
+    private final static int minCommonPrefixLen = 2;
+
+    public final String file;
+    // 首个 META-INF/**/pom.xml，不存在时为 null
+    public final ZipEntry pomEntry;
+    public final boolean hasManifest;
+    // 所有 .class entry，保持 jar 中的顺序
+    public final List<ZipEntry> classEntries = new ArrayList<>();
+    // 包目录 a/b/ -> class entry
+    public final Map<String, List<ZipEntry>> partitions = new HashMap<>();
+    public final String digest;
+
+    private JarScan(String file, Archive archive) {
+        this.file = file;
+        ZipEntry pom = null;
+        boolean manifest = false;
+        List<ZipEntry> files = new ArrayList<>();
+        for (Iterator<ZipEntry> it = archive.stream().iterator(); it.hasNext(); ) {
+            ZipEntry entry = it.next();
+            String name = entry.getName();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            ZipEntry copy = ArchiveUtil.copyEntry(entry, name);
+            files.add(copy);
+            if (name.endsWith(".class")) {
+                classEntries.add(copy);
+                partitions.computeIfAbsent(name.substring(0, name.lastIndexOf("/") + 1), k -> new ArrayList<>()).add(copy);
+            } else if (pom == null && name.startsWith("META-INF") && name.endsWith("pom.xml")) {
+                pom = copy;
+            } else if (name.equals("META-INF/MANIFEST.MF")) {
+                manifest = true;
+            }
+        }
+        this.pomEntry = pom;
+        this.hasManifest = manifest;
+        this.digest = ArchiveUtil.digest(files);
+    }
+
+    /**
+     * 获取 file 的扫描结果，未命中缓存时遍历 archive 并缓存
+     */
+    public static JarScan of(String file, Archive archive) {
+        AnalysisContext ctx = AnalysisContext.current();
+        JarScan scan = ctx.jarScanCache.getIfPresent(file);
+        if (scan == null) {
+            scan = new JarScan(file, archive);
+            ctx.jarScanCache.put(file, scan);
+        }
+        return scan;
+    }
+
+    public boolean hasClass() {
+        return !classEntries.isEmpty();
+    }
+
+    /**
+     * 缺失 pom.xml 或 artifactId 与包名不一致时，按 class 目录的公共前缀划分 packageName(a.b.c)
+     */
+    public List<String> getPkgGroups() {
+        List<String> groups = new ArrayList<>();
+        classEntries.stream().filter(f -> {
+            String name = x(f.getName());
+            // 排除特例：log4j-api-2.13.2.jar!/META-INF/versions/9/module-info.class
+            return !name.contains("META-INF.") && groups.stream().noneMatch(name::startsWith) &&
+                    new File(f.getName()).getParentFile() != null;
+        }).forEach(f -> {
+            String path = x(new File(f.getName()).getParentFile().getPath());
+            Optional<String> result = groups.stream().map(group -> {
+                String prefix = StringUtils.getCommonPrefix(group, path);
+                // prefix 不会返回 null，返回 ""
+                if (prefix.isEmpty()) {
+                    return path;
+                } else if (prefix.split("\\.").length > minCommonPrefixLen) {
+                    return prefix;
+                }
+                return null;
+            }).filter(Objects::nonNull).findFirst();
+            if (result.isPresent()) {
+                groups.removeAll(groups.stream().filter(group -> group.startsWith(result.get())).toList());
+                groups.add(result.get());
+            } else {
+                groups.add(path);
+            }
+        });
+        return groups.stream().map(StringUtil::x).toList();
+    }
+}
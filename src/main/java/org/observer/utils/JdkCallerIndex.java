@@ -0,0 +1,235 @@
+package org.observer.utils;
+
+import jdk.internal.org.objectweb.asm.ClassReader;
+import jdk.internal.org.objectweb.asm.Opcodes;
+import jdk.internal.org.objectweb.asm.tree.AbstractInsnNode;
+import jdk.internal.org.objectweb.asm.tree.ClassNode;
+import jdk.internal.org.objectweb.asm.tree.MethodInsnNode;
+import jdk.internal.org.objectweb.asm.tree.MethodNode;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.observer.utils.StringUtil.x;
+
+/**
+ * JDK 内部调用索引：扫描一次 JDK 全部类，记录每个调用点(owner#name#desc)及所在方法，
+ * 按 JDK 发行商及版本保存至本地缓存目录，之后的分析直接读取，无需再次加载 JDK 的 ClassNode
+ * <p>
+ * 开启 -Djdk.scan 时，JDK 方法的 caller 从该索引中获取(如 ProcessBuilder#start <- Runtime#exec)
+ * <p>
+ * -Djdk.index.dir: 默认 ${user.home}/.code-analyzer/jdk-index
+ */
+public class JdkCallerIndex {
+    private final static int version = 1;
+    private final static Map<String, JdkCallerIndex> instances = new ConcurrentHashMap<>();
+
+    private final String[] strings;
+    // 调用点方法名 -> [owner, desc, callerClass, callerName, callerDesc, caller] 在 strings 中的下标
+    private final Map<String, List<int[]>> sites = new HashMap<>();
+
+    private JdkCallerIndex(String[] strings, List<int[]> records) {
+        this.strings = strings;
+        // record: [calleeName, owner, desc, callerClass, callerName, callerDesc, caller]
+        records.forEach(record -> sites.computeIfAbsent(strings[record[0]], k -> new ArrayList<>()).add(Arrays.copyOfRange(record, 1, record.length)));
+    }
+
+    public static boolean isEnabled() {
+        return System.getProperty("jdk.scan", "false").equals("true");
+    }
+
+    // 获取当前 jdk.home 对应的索引，缓存文件不存在时构建并保存
+    public static JdkCallerIndex getInstance() {
+        return instances.computeIfAbsent(getJdkId(), id -> {
+            Path path = Path.of(System.getProperty("jdk.index.dir", Path.of(System.getProperty("user.home"), ".code-analyzer", "jdk-index").toString()), id + ".idx");
+            try {
+                JdkCallerIndex index = load(path);
+                if (index != null) {
+                    System.out.println("[+] Load JdkCallerIndex: " + path);
+                    return index;
+                }
+                index = build();
+                save(index, path);
+                System.out.println("[+] Save JdkCallerIndex: " + path);
+                return index;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * JDK 标识：发行商-版本，读取 ${home}/release，未指定 jdk.home 时为当前 JVM
+     */
+    public static String getJdkId() {
+        String home = System.getProperty("jdk.home", System.getProperty("java.home"));
+        Properties release = new Properties();
+        File file = new File(home, "release");
+        if (!file.isFile()) {
+            // JDK 8 的 java.home 为 jre 目录
+            file = new File(new File(home).getParentFile(), "release");
+        }
+        try (Reader reader = new FileReader(file)) {
+            release.load(reader);
+        } catch (IOException ignored) {
+        }
+        String vendor = release.getProperty("IMPLEMENTOR");
+        String jdkVersion = release.getProperty("JAVA_RUNTIME_VERSION", release.getProperty("JAVA_VERSION"));
+        if (jdkVersion == null) {
+            if (System.getProperty("jdk.home") != null) {
+                return "unknown-" + Integer.toHexString(home.hashCode());
+            }
+            vendor = System.getProperty("java.vendor");
+            jdkVersion = System.getProperty("java.runtime.version");
+        }
+        return String.format("%s-%s", vendor, jdkVersion).replace("\"", "").replaceAll("[^\\w.+-]", "_");
+    }
+
+    private static JdkCallerIndex build() {
+        System.out.println("[+] Build JdkCallerIndex...");
+        JdkIndex jdkIndex = JdkIndex.getInstance();
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        List<int[]> records = new ArrayList<>();
+        jdkIndex.getClassNames().forEach(cName -> {
+            ClassNode classNode = new ClassNode();
+            try {
+                byte[] bytes = jdkIndex.readClass(cName);
+                if (bytes == null) {
+                    return;
+                }
+                new ClassReader(bytes).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            } catch (Exception e) {
+                System.out.println("[-] can not load class: " + cName + ", Error: " + e.getMessage());
+                return;
+            }
+            // 与 SearchUtil 一致，接口中的方法不作为 caller
+            if ((classNode.access & Opcodes.ACC_INTERFACE) != 0) {
+                return;
+            }
+            for (MethodNode methodNode : classNode.methods) {
+                Set<String> callSites = new HashSet<>();
+                String caller = null;
+                for (AbstractInsnNode inode : methodNode.instructions) {
+                    if (inode.getType() != AbstractInsnNode.METHOD_INSN) {
+                        continue;
+                    }
+                    MethodInsnNode miNode = (MethodInsnNode) inode;
+                    if (!callSites.add(miNode.owner + "#" + miNode.name + "#" + miNode.desc)) {
+                        continue;
+                    }
+                    if (caller == null) {
+                        caller = SearchUtil.toCaller(classNode, methodNode);
+                    }
+                    records.add(new int[]{
+                            id(miNode.name, stringIds, strings), id(x(miNode.owner), stringIds, strings), id(miNode.desc, stringIds, strings),
+                            id(x(classNode.name), stringIds, strings), id(methodNode.name, stringIds, strings), id(methodNode.desc, stringIds, strings),
+                            id(caller, stringIds, strings)});
+                }
+            }
+        });
+        System.out.printf("[+] Build JdkCallerIndex, call sites: %s%n", records.size());
+        return new JdkCallerIndex(strings.toArray(new String[0]), records);
+    }
+
+    private static int id(String value, Map<String, Integer> stringIds, List<String> strings) {
+        return stringIds.computeIfAbsent(value, k -> {
+            strings.add(k);
+            return strings.size() - 1;
+        });
+    }
+
+    // 缓存文件不存在、版本不一致或无法读取(截断、gzip 损坏等)时返回 null，重新构建
+    private static JdkCallerIndex load(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            if (in.readInt() != version) {
+                return null;
+            }
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            int size = in.readInt();
+            List<int[]> records = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int[] record = new int[7];
+                for (int j = 0; j < record.length; j++) {
+                    record[j] = in.readInt();
+                }
+                records.add(record);
+            }
+            return new JdkCallerIndex(strings, records);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("[-] JdkCallerIndex is broken: " + path + ", error: " + e);
+            return null;
+        }
+    }
+
+    // 先写入临时文件再替换，避免并发分析读取到写入一半的索引
+    private static void save(JdkCallerIndex index, Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+            out.writeInt(version);
+            out.writeInt(index.strings.length);
+            for (String value : index.strings) {
+                out.writeUTF(value);
+            }
+            Map<String, Integer> stringIds = new HashMap<>();
+            for (int i = 0; i < index.strings.length; i++) {
+                stringIds.put(index.strings[i], i);
+            }
+            out.writeInt(index.sites.values().stream().mapToInt(List::size).sum());
+            for (Map.Entry<String, List<int[]>> entry : index.sites.entrySet()) {
+                int nameId = stringIds.get(entry.getKey());
+                for (int[] site : entry.getValue()) {
+                    out.writeInt(nameId);
+                    for (int value : site) {
+                        out.writeInt(value);
+                    }
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 获取 JDK 中调用 cName#fName#fDesc 的方法，匹配规则与 SearchUtil.getCallerFromFile 一致
+     */
+    public List<String> getCallers(String cName, String fName, String fDesc, int fAccess) {
+        DispatchTable table = DispatchTable.current();
+        Set<String> overriders = table != null ? table.getOverriders(cName, fName, fDesc) : Set.of();
+        Set<String> results = new LinkedHashSet<>();
+        for (int[] site : sites.getOrDefault(fName, List.of())) {
+            String owner = strings[site[0]];
+            String callerClass = strings[site[2]];
+            String callerName = strings[site[3]];
+            if (!fDesc.equals("null") && !strings[site[1]].equals(fDesc)) {
+                continue;
+            }
+            // 跳过 callee 自身
+            if (callerName.equals(fName) && (fDesc.equals("null") || strings[site[4]].equals(fDesc)) && (callerClass.equals(cName) || !MethodUtil.isValidMethod(callerName))) {
+                continue;
+            }
+            if ((fAccess & Opcodes.ACC_PRIVATE) != 0 && !callerClass.equals(cName)) {
+                continue;
+            }
+            if ((fAccess & Opcodes.ACC_PROTECTED) != 0 && !ClassNodeUtil.getPkgName(callerClass).equals(ClassNodeUtil.getPkgName(cName))) {
+                continue;
+            }
+            if (MethodUtil.isMatchOwner(owner, cName, fName, fDesc, overriders)) {
+                results.add(strings[site[5]]);
+            }
+        }
+        return new ArrayList<>(results);
+    }
+}
@@ -0,0 +1,164 @@
+package org.observer.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+import static org.observer.utils.StringUtil.x;
+import static org.observer.utils.StringUtil.y;
+
+/**
+ * JDK 类索引，用于替代 Class.forName / ClassReader(cName) 判断及加载 JDK 类，避免将目标类加载(初始化)至分析器 JVM 中
+ * <p>
+ * 默认读取当前 JVM 的 jrt:/ 文件系统，可通过 -Djdk.home 指定目标 JDK：
+ * 1. JDK 8 及以下：读取 ${jdk.home}/lib/rt.jar 或 ${jdk.home}/jre/lib/rt.jar
+ * 2. JDK 9 及以上：通过目标 JDK 的 jrt-fs 读取其 lib/modules 镜像
+ * <p>
+ * package -> module 映射在首次使用时建立，package 下的类名列表在首次访问该 package 时建立
+ */
+public class JdkIndex {
+    private final static Map<String, JdkIndex> instances = new ConcurrentHashMap<>();
+
+    // jrt 模式
+    private final FileSystem fileSystem;
+    // rt.jar 模式
+    private final JarFile rtJar;
+    // a/b/c -> modules
+    private volatile Map<String, List<String>> packageModuleMap;
+    // a/b/c -> [C.class, C$1.class]
+    private final Map<String, Set<String>> packageClassesMap = new ConcurrentHashMap<>();
+
+    private JdkIndex(String home) throws IOException {
+        if (home == null) {
+            fileSystem = FileSystems.getFileSystem(URI.create("jrt:/"));
+            rtJar = null;
+        } else {
+            File rt = Stream.of(new File(home, "lib/rt.jar"), new File(home, "jre/lib/rt.jar")).filter(File::isFile).findFirst().orElse(null);
+            if (rt != null) {
+                fileSystem = null;
+                rtJar = new JarFile(rt);
+            } else {
+                fileSystem = FileSystems.newFileSystem(URI.create("jrt:/"), Map.of("java.home", home));
+                rtJar = null;
+            }
+        }
+    }
+
+    // 获取 jdk.home 对应的索引，未指定时为当前 JVM
+    public static JdkIndex getInstance() {
+        String home = System.getProperty("jdk.home");
+        return instances.computeIfAbsent(home == null ? "" : home, k -> {
+            try {
+                System.out.println("[+] Create JdkIndex: " + (k.isEmpty() ? "jrt:/" : k));
+                return new JdkIndex(k.isEmpty() ? null : k);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // 判断 cName(a.b.C) 是否为 JDK 类
+    public boolean contains(String cName) {
+        int idx = cName.lastIndexOf(".");
+        if (idx < 0) {
+            return false;
+        }
+        String pkgName = y(cName.substring(0, idx));
+        if (!getPackageModuleMap().containsKey(pkgName)) {
+            return false;
+        }
+        return getPackageClasses(pkgName).contains(cName.substring(idx + 1) + ".class");
+    }
+
+    // 读取 JDK 类字节码，不存在时返回 null
+    public byte[] readClass(String cName) throws IOException {
+        if (!contains(cName)) {
+            return null;
+        }
+        String entryName = y(cName) + ".class";
+        if (rtJar != null) {
+            try (InputStream inputStream = rtJar.getInputStream(rtJar.getEntry(entryName))) {
+                return inputStream.readAllBytes();
+            }
+        }
+        for (String module : getPackageModuleMap().get(y(cName.substring(0, cName.lastIndexOf("."))))) {
+            Path path = fileSystem.getPath("/modules", module, entryName);
+            if (Files.exists(path)) {
+                return Files.readAllBytes(path);
+            }
+        }
+        return null;
+    }
+
+    public Set<String> getPackages() {
+        return getPackageModuleMap().keySet();
+    }
+
+    // 所有 JDK 类名(a.b.C)
+    public Stream<String> getClassNames() {
+        return getPackages().stream().flatMap(pkgName -> getPackageClasses(pkgName).stream().map(name -> x(String.format("%s/%s", pkgName, name.substring(0, name.length() - ".class".length())))));
+    }
+
+    private Map<String, List<String>> getPackageModuleMap() {
+        if (packageModuleMap == null) {
+            synchronized (this) {
+                if (packageModuleMap == null) {
+                    packageModuleMap = rtJar != null ? loadRtJarPackages() : loadJrtPackages();
+                }
+            }
+        }
+        return packageModuleMap;
+    }
+
+    // 通过 /packages/<a.b.c>/<module> 建立 package -> module 映射
+    private Map<String, List<String>> loadJrtPackages() {
+        Map<String, List<String>> map = new HashMap<>();
+        try (DirectoryStream<Path> packages = Files.newDirectoryStream(fileSystem.getPath("/packages"))) {
+            for (Path pkg : packages) {
+                List<String> modules = new ArrayList<>();
+                try (DirectoryStream<Path> links = Files.newDirectoryStream(pkg)) {
+                    links.forEach(link -> modules.add(link.getFileName().toString()));
+                }
+                map.put(y(pkg.getFileName().toString()), modules);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return map;
+    }
+
+    // rt.jar 直接读取 central directory，一次性建立全部映射
+    private Map<String, List<String>> loadRtJarPackages() {
+        Map<String, List<String>> map = new HashMap<>();
+        rtJar.stream().map(f -> f.getName()).filter(name -> name.endsWith(".class") && name.contains("/")).forEach(name -> {
+            int idx = name.lastIndexOf("/");
+            String pkgName = name.substring(0, idx);
+            map.putIfAbsent(pkgName, List.of(""));
+            packageClassesMap.computeIfAbsent(pkgName, k -> new HashSet<>()).add(name.substring(idx + 1));
+        });
+        return map;
+    }
+
+    private Set<String> getPackageClasses(String pkgName) {
+        return packageClassesMap.computeIfAbsent(pkgName, k -> {
+            Set<String> names = new HashSet<>();
+            if (fileSystem == null) {
+                return names;
+            }
+            for (String module : getPackageModuleMap().getOrDefault(k, List.of())) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(fileSystem.getPath("/modules", module, k), "*.class")) {
+                    files.forEach(file -> names.add(file.getFileName().toString()));
+                } catch (IOException ignored) {
+                }
+            }
+            return names;
+        });
+    }
+}
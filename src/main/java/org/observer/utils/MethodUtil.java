@@ -11,7 +11,6 @@ import static org.observer.utils.StringUtil.x;
 
 public class MethodUtil {
     private final static Pattern lambdaPattern = Pattern.compile(".*\\$([^$]+)\\$\\d+$");
-    private final static Map<String, String> relationCache = new HashMap<>();
 
     public static String lambdaTrim(String name) {
         Matcher matcher = lambdaPattern.matcher(name);
@@ -26,57 +25,67 @@ public class MethodUtil {
      * 判断方法中是否存在 cName#fName 方法调用
      */
     public static boolean isCaller(MethodNode methodNode, String cName, String fName, String fDesc) {
+        DispatchTable table = DispatchTable.current();
+        // 开启 CHA 时，调用点 owner 为重写/实现 cName#fName 的类型同样视为调用
+        Set<String> overriders = table != null ? table.getOverriders(cName, fName, fDesc) : Set.of();
         InsnList ins = methodNode.instructions;
         boolean found = false;
         for (int i = 0; i < ins.size(); i++) {
             AbstractInsnNode inode = ins.get(i);
             if (inode.getType() == AbstractInsnNode.METHOD_INSN) {
                 MethodInsnNode miNode = (MethodInsnNode) inode;
-                if (miNode.name.equals(fName) && (fDesc.equals("null") || miNode.desc.equals(fDesc))) {
-                    try {
-                        /*
-                            如下场景需要考虑：
-                            1. a 继承 b，a 调用 b 中方法 x，当搜索 b.x 方法调用时，此时 miNode.owner 为 a
-                         */
-                        String owner = x(miNode.owner);
-                        String key = String.format("%s#%s", owner, cName);
-                        if (owner.equals(cName) || (relationCache.containsKey(key) && relationCache.get(key).equals("true"))) {
-                            found = true;
-                            break;
-                        } else {
-                            /*
-                                1. 如果 cName 为接口，则 miNode.owner 应同为接口
-                                2. 如果 cName 为类，则 miNode.owner 应为类，而非接口
-                                3. 只有 miNode.owner 和 cName 同为类时，才进行继承判断
-                             */
-                            if (!relationCache.containsKey(key) && MethodUtil.isValidMethod(fName)) {
-                                ClassNode ownerClassNode = ClassNodeUtil.getClassNodeFromCache(owner);
-                                ClassNode parentClassNode = ClassNodeUtil.getClassNodeFromCache(cName);
-                                if (ownerClassNode != null && parentClassNode != null && !ClassNodeUtil.isInterface(ownerClassNode) && !ClassNodeUtil.isInterface(parentClassNode)) {
-                                    boolean isChildren = HierarchyUtil.isChildren(ownerClassNode, parentClassNode);
-                                    relationCache.put(key, String.valueOf(isChildren));
-                                    if (isChildren) {
-                                        found = true;
-                                        break;
-                                    } else {
-                                        if (System.getProperty("log.print", "false").equals("true")) {
-                                            System.out.printf("[-] no match[%s|%s]: %s !>> %s%n", fName, fDesc.equals("null"), owner, cName);
-                                        }
-                                    }
-                                } else {
-                                    relationCache.put(key, "false");
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+                if (miNode.name.equals(fName) && (fDesc.equals("null") || miNode.desc.equals(fDesc)) && isMatchOwner(x(miNode.owner), cName, fName, fDesc, overriders)) {
+                    found = true;
+                    break;
                 }
             }
         }
         return found;
     }
 
+    /**
+     * 判断调用点 owner 调用 fName 时是否属于对 cName#fName 的调用
+     *
+     * @param overriders 开启 CHA 时重写/实现 cName#fName 的类型
+     */
+    static boolean isMatchOwner(String owner, String cName, String fName, String fDesc, Set<String> overriders) {
+        Map<String, String> relationCache = AnalysisContext.current().relationCache;
+        try {
+            /*
+                如下场景需要考虑：
+                1. a 继承 b，a 调用 b 中方法 x，当搜索 b.x 方法调用时，此时 miNode.owner 为 a
+             */
+            String key = String.format("%s#%s", owner, cName);
+            if (owner.equals(cName) || overriders.contains(owner) || (relationCache.containsKey(key) && relationCache.get(key).equals("true"))) {
+                return true;
+            }
+            /*
+                1. 如果 cName 为接口，则 miNode.owner 应同为接口
+                2. 如果 cName 为类，则 miNode.owner 应为类，而非接口
+                3. 只有 miNode.owner 和 cName 同为类时，才进行继承判断
+             */
+            if (!relationCache.containsKey(key) && MethodUtil.isValidMethod(fName)) {
+                ClassSummary ownerSummary = ClassNodeUtil.getClassSummary(owner);
+                ClassSummary parentSummary = ClassNodeUtil.getClassSummary(cName);
+                if (ownerSummary != null && parentSummary != null && !ownerSummary.isInterface() && !parentSummary.isInterface()) {
+                    boolean isChildren = HierarchyUtil.isChildren(owner, cName);
+                    relationCache.put(key, String.valueOf(isChildren));
+                    if (isChildren) {
+                        return true;
+                    }
+                    if (System.getProperty("log.print", "false").equals("true")) {
+                        System.out.printf("[-] no match[%s|%s]: %s !>> %s%n", fName, fDesc.equals("null"), owner, cName);
+                    }
+                } else {
+                    relationCache.put(key, "false");
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
     public static boolean isValidMethod(String methodName) {
         final List<String> blackMethods = Arrays.asList("main", "<clinit>");
         return !blackMethods.contains(methodName);
@@ -0,0 +1,229 @@
+package org.observer.utils;
+
+import jdk.internal.org.objectweb.asm.Handle;
+import jdk.internal.org.objectweb.asm.Opcodes;
+import jdk.internal.org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+import static org.observer.utils.StringUtil.x;
+
+/**
+ * 入口 -> sink 路径查询：入口方法正向展开，sink 通过 SearchUtil 逐层回溯，两侧在中间相遇
+ * <p>
+ * 只需判断 sink 能否从入口到达及最短路径时，无需 getBTUpgradeCaller 构建完整的回溯树
+ * <p>
+ * -Dpath.depth: 两侧展开的总层数上限，默认 16
+ */
+public class PathSearchUtil {
+    public static List<List<String>> search(String sink, int k) {
+        return search(getEntryPoints(), sink, k);
+    }
+
+    /**
+     * 获取 entries 至 sink 的最短路径，每个相遇节点对应一条路径，最多返回 k 条
+     *
+     * @param entries cName#fName#fDesc#fAccess
+     * @param sink    cName#fName#fDesc#fAccess，fDesc 可为 null
+     * @return 按长度升序，每条路径从入口开始至 sink 结束
+     */
+    public static List<List<String>> search(Collection<String> entries, String sink, int k) {
+        int maxDepth = Integer.parseInt(System.getProperty("path.depth", "16"));
+        // key(cName#fName#fDesc) -> 相邻节点 key，入口/sink 的相邻节点为 null
+        Map<String, String> forward = new HashMap<>();
+        // cName#fName -> 正向展开中首个该方法的 key
+        Map<String, String> forwardNames = new HashMap<>();
+        Map<String, String> backward = new HashMap<>();
+        Map<String, String> calls = new HashMap<>();
+        List<String> forwardFrontier = new ArrayList<>();
+        List<String> backwardFrontier = new ArrayList<>();
+        Set<String> meetings = new LinkedHashSet<>();
+
+        for (String entry : entries) {
+            String key = key(entry);
+            if (!forward.containsKey(key)) {
+                forward.put(key, null);
+                forwardNames.putIfAbsent(name(key), key);
+                calls.putIfAbsent(key, entry);
+                forwardFrontier.add(key);
+            }
+        }
+        backward.put(key(sink), null);
+        calls.putIfAbsent(key(sink), sink);
+        backwardFrontier.add(key(sink));
+        forward.keySet().stream().filter(key -> getMeetingKey(key, backward) != null).forEach(meetings::add);
+
+        int depth = 0;
+        while (meetings.size() < k && depth < maxDepth && (!forwardFrontier.isEmpty() || !backwardFrontier.isEmpty())) {
+            // 优先展开较小的一侧
+            boolean isForward = backwardFrontier.isEmpty() || (!forwardFrontier.isEmpty() && forwardFrontier.size() <= backwardFrontier.size());
+            List<String> next = new ArrayList<>();
+            for (String key : isForward ? forwardFrontier : backwardFrontier) {
+                for (String neighbor : isForward ? getCallees(calls.get(key)) : getCallers(calls.get(key))) {
+                    String neighborKey = key(neighbor);
+                    Map<String, String> visited = isForward ? forward : backward;
+                    if (visited.containsKey(neighborKey)) {
+                        continue;
+                    }
+                    visited.put(neighborKey, key);
+                    calls.putIfAbsent(neighborKey, neighbor);
+                    next.add(neighborKey);
+                    if (isForward) {
+                        forwardNames.putIfAbsent(name(neighborKey), neighborKey);
+                        if (getMeetingKey(neighborKey, backward) != null) {
+                            meetings.add(neighborKey);
+                        }
+                    } else {
+                        String meeting = getForwardMeetingKey(neighborKey, forward, forwardNames);
+                        if (meeting != null) {
+                            meetings.add(meeting);
+                        }
+                    }
+                }
+            }
+            if (isForward) {
+                forwardFrontier = next;
+            } else {
+                backwardFrontier = next;
+            }
+            depth++;
+        }
+        if (System.getProperty("log.print", "false").equals("true")) {
+            System.out.printf("[+] path search: %s, forward: %s, backward: %s, meetings: %s%n", sink, forward.size(), backward.size(), meetings.size());
+        }
+        return meetings.stream().map(meeting -> toPath(meeting, sink, forward, backward, calls)).distinct()
+                .sorted(Comparator.comparingInt(List::size)).limit(k).toList();
+    }
+
+    // 入口 -> meeting -> sink，路径以查询的 sink 结束
+    private static List<String> toPath(String meeting, String sink, Map<String, String> forward, Map<String, String> backward, Map<String, String> calls) {
+        LinkedList<String> path = new LinkedList<>();
+        for (String key = meeting; key != null; key = forward.get(key)) {
+            path.addFirst(calls.get(key));
+        }
+        for (String key = backward.get(getMeetingKey(meeting, backward)); key != null; key = backward.get(key)) {
+            path.addLast(calls.get(key));
+        }
+        path.set(path.size() - 1, sink);
+        return path;
+    }
+
+    // 回溯侧可能存在 fDesc 为 null 的 sink，此时只匹配方法名
+    private static String getMeetingKey(String key, Map<String, String> backward) {
+        if (backward.containsKey(key)) {
+            return key;
+        }
+        String nameKey = name(key) + "#null";
+        return backward.containsKey(nameKey) ? nameKey : null;
+    }
+
+    // 回溯得到的 lambda 方法体 caller(SearchUtil.toCaller)fDesc 为 null，此时按方法名匹配正向展开的节点，返回正向的 key
+    private static String getForwardMeetingKey(String key, Map<String, String> forward, Map<String, String> forwardNames) {
+        if (forward.containsKey(key)) {
+            return key;
+        }
+        return key.endsWith("#null") ? forwardNames.get(name(key)) : null;
+    }
+
+    // cName#fName
+    private static String name(String key) {
+        return key.substring(0, key.lastIndexOf("#"));
+    }
+
+    private static String key(String call) {
+        return call.substring(0, call.lastIndexOf("#"));
+    }
+
+    // 回溯一层，upgrade 至父类/接口方法时，该方法同样作为路径上的节点
+    private static List<String> getCallers(String call) {
+        String upgradeCall = SearchUtil.getUpgradeCall(call);
+        if (upgradeCall == null) {
+            return List.of();
+        }
+        if (!upgradeCall.equals(call)) {
+            return List.of(upgradeCall);
+        }
+        return SearchUtil.getCallers(call);
+    }
+
+    // 正向展开一层：方法体中调用的方法及 lambda/方法引用，调用点的 owner 解析至声明该方法的类
+    static List<String> getCallees(String call) {
+        String[] callItems = call.split("#");
+        String filePath = DependencyUtil.getJarPathFromCache(callItems[0]);
+        if (filePath == null || (filePath.equals(ClassNodeUtil.jdkFileName) && System.getProperty("jdk.scan", "false").equals("false"))) {
+            return List.of();
+        }
+        ClassNode classNode = ClassNodeUtil.getClassNodeFromCache(callItems[0]);
+        if (classNode == null) {
+            return List.of();
+        }
+        Set<String> callees = new LinkedHashSet<>();
+        classNode.methods.stream().filter(methodNode -> methodNode.name.equals(callItems[1]) && (callItems[2].equals("null") || methodNode.desc.equals(callItems[2]))).forEach(methodNode -> {
+            for (AbstractInsnNode inode : methodNode.instructions) {
+                if (inode.getType() == AbstractInsnNode.METHOD_INSN) {
+                    MethodInsnNode miNode = (MethodInsnNode) inode;
+                    callees.add(resolve(x(miNode.owner), miNode.name, miNode.desc));
+                } else if (inode.getType() == AbstractInsnNode.INVOKE_DYNAMIC_INSN) {
+                    for (Object arg : ((InvokeDynamicInsnNode) inode).bsmArgs) {
+                        if (arg instanceof Handle handle && handle.getTag() >= Opcodes.H_INVOKEVIRTUAL) {
+                            callees.add(resolve(x(handle.getOwner()), handle.getName(), handle.getDesc()));
+                        }
+                    }
+                }
+            }
+        });
+        return new ArrayList<>(callees);
+    }
+
+    private static String resolve(String owner, String fName, String fDesc) {
+        ClassSummary summary = ClassNodeUtil.getClassSummary(owner);
+        if (summary != null && !summary.hasMethod(fName, fDesc)) {
+            String superName = HierarchyUtil.getMatchSuperName(owner, fName, fDesc);
+            summary = superName != null ? ClassNodeUtil.getClassSummary(superName) : summary;
+        }
+        if (summary != null) {
+            for (ClassSummary.MethodSummary method : summary.methods) {
+                if (method.name.equals(fName) && method.desc.equals(fDesc)) {
+                    return String.format("%s#%s#%s#%s", x(summary.name), fName, fDesc, method.access);
+                }
+            }
+        }
+        return String.format("%s#%s#%s#%s", owner, fName, fDesc, 1);
+    }
+
+    /**
+     * 获取 lib 中的入口方法：entryMethods 中父类/接口的子类方法，及带有 entryAnnotations 注解的方法
+     * <p>
+     * 基于类加载时建立的注解及继承索引，尚未建立索引的 jar 会先被加载
+     */
+    public static Set<String> getEntryPoints() {
+        AnalysisContext ctx = AnalysisContext.current();
+        Set<String> entryPoints = ctx.entryPoints;
+        if (entryPoints == null) {
+            ClassNodeUtil.indexAll();
+            Set<String> results = new LinkedHashSet<>();
+            ctx.entryAnnotations.forEach(annotation -> results.addAll(ctx.annotationIndex.getOrDefault(annotation, Set.of())));
+            ctx.entryMethods.forEach((parent, fNames) -> ClassNodeUtil.getSubTypes(parent).forEach(cName -> {
+                ClassSummary summary = ClassNodeUtil.getClassSummary(cName);
+                if (summary == null || summary.isInterface()) {
+                    return;
+                }
+                summary.methods.stream().filter(method -> fNames.contains(method.name) && (method.access & Opcodes.ACC_ABSTRACT) == 0)
+                        .forEach(method -> results.add(String.format("%s#%s#%s#%s", cName, method.name, method.desc, method.access)));
+            }));
+            System.out.println("[+] entry points count: " + results.size());
+            entryPoints = results;
+            ctx.entryPoints = entryPoints;
+        }
+        return entryPoints;
+    }
+
+    // annotation: a.b.C
+    public static void addEntryAnnotation(String annotation) {
+        AnalysisContext.current().addEntryAnnotation(annotation);
+    }
+
+    public static void addEntryMethod(String parent, String fName) {
+        AnalysisContext.current().addEntryMethod(parent, fName);
+    }
+}
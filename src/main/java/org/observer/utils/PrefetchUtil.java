@@ -0,0 +1,124 @@
+package org.observer.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.zip.ZipEntry;
+
+/**
+ * 预取：搜索线程扫描当前 jar 时，后台线程提前读取并解析后续 jar 至 ClassNode 热层/冷层
+ * <p>
+ * 已预取但尚未被搜索线程使用的 jar 大小总和不超过 prefetch.budget，超出时跳过预取，由搜索线程按原方式加载；
+ * 预算在搜索线程 await 该 jar 后释放，预取完成但未使用的 ClassNode 同样计入；搜索提前结束(异常、取消)时由 {@link #release(Map)} 释放
+ * <p>
+ * -Dprefetch: 默认 false，开启预取
+ * -Dprefetch.depth: 默认 4，每次预取后续 jar 的数量
+ * -Dprefetch.budget: 默认 256，已预取未使用的 jar 大小上限(MB)
+ * -Dprefetch.threads: 默认 CPU 核数的一半
+ */
+public class PrefetchUtil {
+    private final static int depth = Integer.parseInt(System.getProperty("prefetch.depth", "4"));
+    private final static long budget = Long.parseLong(System.getProperty("prefetch.budget", "256")) * 1024 * 1024;
+    private final static int threads = Integer.parseInt(System.getProperty("prefetch.threads", String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+
+    public static boolean isEnabled() {
+        return System.getProperty("prefetch", "false").equals("true");
+    }
+
+    /**
+     * 预取 files 中 from 之后的 depth 个 jar，已加载、正在预取或超出预算的 jar 跳过
+     */
+    public static void prefetch(List<String> files, int from) {
+        prefetch(files, from, null);
+    }
+
+    /**
+     * @param owned 不为 null 时记录本次提交的预取任务，搜索结束后通过 {@link #release(Map)} 释放未使用的部分
+     */
+    static void prefetch(List<String> files, int from, Map<String, Task> owned) {
+        if (!isEnabled()) {
+            return;
+        }
+        AnalysisContext ctx = AnalysisContext.current();
+        for (int i = from; i < Math.min(files.size(), from + depth); i++) {
+            String file = files.get(i);
+            if (ctx.filePkgEntriesMap.containsKey(file) || ctx.loadFailedClassJarFiles.contains(file) || ctx.prefetchFutures.containsKey(file)) {
+                continue;
+            }
+            long size = getSize(file);
+            if (ctx.prefetchBytes.addAndGet(size) > budget) {
+                ctx.prefetchBytes.addAndGet(-size);
+                if (System.getProperty("log.print", "false").equals("true")) {
+                    System.out.println("[!] prefetch budget exceeded, skip: " + file);
+                }
+                return;
+            }
+            Task task = new Task(ctx.wrap(() -> {
+                ClassNodeUtil.loadAllClassNodeFromFile(file);
+                return null;
+            }), size);
+            if (ctx.prefetchFutures.putIfAbsent(file, task) == null) {
+                if (owned != null) {
+                    owned.put(file, task);
+                }
+                ctx.getPrefetchExecutor(threads).execute(task);
+            } else {
+                ctx.prefetchBytes.addAndGet(-size);
+            }
+        }
+    }
+
+    // 等待 file 的预取完成，避免搜索线程重复读取同一个 jar；之后释放其占用的预算
+    public static void await(String file) {
+        AnalysisContext ctx = AnalysisContext.current();
+        Task task = ctx.prefetchFutures.remove(file);
+        if (task == null) {
+            return;
+        }
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.out.println("[-] prefetch failed: " + file + ", error: " + e.getCause());
+        } finally {
+            ctx.prefetchBytes.addAndGet(-task.size);
+        }
+    }
+
+    // 取消 owned 中尚未被 await 的预取任务并释放其预算，已被其他搜索替换的任务不受影响
+    static void release(Map<String, Task> owned) {
+        AnalysisContext ctx = AnalysisContext.current();
+        owned.forEach((file, task) -> {
+            if (ctx.prefetchFutures.remove(file, task)) {
+                task.cancel(false);
+                ctx.prefetchBytes.addAndGet(-task.size);
+            }
+        });
+        owned.clear();
+    }
+
+    // 预取任务及其占用的预算
+    static class Task extends FutureTask<Void> {
+        private final long size;
+
+        private Task(Callable<Void> callable, long size) {
+            super(callable);
+            this.size = size;
+        }
+    }
+
+    // 内嵌 jar 以 class 压缩后大小之和估算
+    static long getSize(String file) {
+        if (!file.contains(ArchiveUtil.separator)) {
+            return new File(file).length();
+        }
+        try (Archive archive = ArchiveUtil.open(file)) {
+            return archive.stream().mapToLong(ZipEntry::getCompressedSize).filter(size -> size > 0).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
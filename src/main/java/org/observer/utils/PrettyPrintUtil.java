@@ -2,14 +2,14 @@ package org.observer.utils;
 
 import com.google.gson.Gson;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.util.*;
 
 public class PrettyPrintUtil {
-    // 过滤输出结果
-    private final static Set<String> filters = new HashSet<>();
     private final static Gson gson = new Gson();
 
     public static void prettyPrint(Map map) {
@@ -25,31 +25,70 @@ public class PrettyPrintUtil {
     }
 
     public static void saveToFile(Map map, String path, boolean override) {
+        Set<String> filters = AnalysisContext.current().filters;
         if (filters.size() > 0) {
             Map result = filter(map);
             if (result.size() > 0) {
-                try (FileOutputStream outputStream = new FileOutputStream(String.format("%s_filter.json", path.substring(0, path.lastIndexOf("."))), true)) {
-                    outputStream.write(gson.toJson(result).getBytes());
+                try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(String.format("%s_filter.json", path.substring(0, path.lastIndexOf("."))), true))) {
+                    ResultStore.write(result, outputStream);
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
             }
         }
         if (override) {
-            try (FileOutputStream outputStream = new FileOutputStream(path, true)) {
-                outputStream.write(gson.toJson(map).getBytes());
+            // 溢写至磁盘的子树直接从临时文件复制
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(path, true))) {
+                ResultStore.write(map, outputStream);
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
     }
 
+    public static void prettyPrint(CallGraph graph) {
+        System.out.println("====== Pretty Print ======");
+        if (AnalysisContext.current().filters.size() > 0) {
+            Map result = filter(graph.toTree());
+            if (result.size() > 0) {
+                System.out.println(gson.toJson(result));
+            }
+        } else {
+            System.out.println(graph.toJson());
+        }
+    }
+
+    // 以节点表 + 边表格式追加保存，可通过 CallGraph.readAll 读取
+    public static void saveGraphToFile(CallGraph graph, String path) {
+        Set<String> filters = AnalysisContext.current().filters;
+        if (filters.size() > 0) {
+            Map result = filter(graph.toTree());
+            if (result.size() > 0) {
+                try (FileOutputStream outputStream = new FileOutputStream(String.format("%s_filter.json", path.substring(0, path.lastIndexOf("."))), true)) {
+                    outputStream.write(gson.toJson(result).getBytes());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        try (FileOutputStream outputStream = new FileOutputStream(path, true)) {
+            outputStream.write(graph.toJson().getBytes());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     public static void addFilter(String name) {
-        filters.add(name);
+        AnalysisContext.current().filters.add(name);
     }
 
     // 过滤出包含关键词的部分
     public static Map filter(Map map) {
+        Set<String> filters = AnalysisContext.current().filters;
+        // 溢写至磁盘的子树流式过滤，不整体读入内存
+        if (filters.size() > 0 && ResultStore.isSpilled(map)) {
+            return ResultStore.filter(map, filters);
+        }
         if (filters.size() > 0 && map.keySet().size() > 0) {
             Map results = new HashMap();
             map.entrySet().forEach(entry -> {
@@ -0,0 +1,111 @@
+package org.observer.utils;
+
+import jdk.internal.org.objectweb.asm.Opcodes;
+
+import java.util.*;
+
+/**
+ * 入口可达性：从 PathSearchUtil.getEntryPoints 正向展开，计算入口可达的方法集合，用于回溯时剪枝
+ * <p>
+ * 正向展开为保守估计：
+ * 1. 虚调用展开至所有子类中的重写方法(CHA)
+ * 2. 类被实例化时，其重写的 JDK 父类/接口方法视为可达(如 Runnable#run 等回调)
+ * 3. 类中任一方法可达时，静态初始化方法可达
+ * <p>
+ * -Dreach.prune: 默认 false，回溯时跳过入口不可达的 caller
+ * -Dreach.collapse: 默认 false，剪枝时保留不可达的 caller 作为 "[unreachable] " 前缀的叶子节点
+ */
+public class ReachUtil {
+    public final static String unreachablePrefix = "[unreachable] ";
+
+    public static boolean isPruneEnabled() {
+        return System.getProperty("reach.prune", "false").equals("true");
+    }
+
+    public static boolean isCollapseEnabled() {
+        return System.getProperty("reach.collapse", "false").equals("true");
+    }
+
+    // fDesc 为 null 时只匹配方法名
+    public static boolean isReachable(String call) {
+        String[] callItems = call.split("#");
+        Set<String> reachableMethods = getReachableMethods();
+        return callItems[2].equals("null") ? reachableMethods.contains(callItems[0] + "#" + callItems[1]) : reachableMethods.contains(String.format("%s#%s#%s", callItems[0], callItems[1], callItems[2]));
+    }
+
+    public static Set<String> getReachableMethods() {
+        AnalysisContext ctx = AnalysisContext.current();
+        Set<String> reachableMethods = ctx.reachableMethods;
+        if (reachableMethods == null) {
+            reachableMethods = collect(PathSearchUtil.getEntryPoints());
+            System.out.println("[+] reachable methods count: " + reachableMethods.stream().filter(key -> key.split("#").length == 3).count());
+            ctx.reachableMethods = reachableMethods;
+        }
+        return reachableMethods;
+    }
+
+    private static Set<String> collect(Set<String> entryPoints) {
+        Set<String> reachableMethods = new HashSet<>();
+        Set<String> initializedClasses = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        entryPoints.forEach(entry -> visit(entry, reachableMethods, queue));
+        while (!queue.isEmpty()) {
+            String call = queue.poll();
+            String cName = call.substring(0, call.indexOf("#"));
+            if (initializedClasses.add(cName)) {
+                visit(String.format("%s#<clinit>#()V#%s", cName, Opcodes.ACC_STATIC), reachableMethods, queue);
+            }
+            for (String callee : PathSearchUtil.getCallees(call)) {
+                visit(callee, reachableMethods, queue);
+                getOverriders(callee).forEach(overrider -> visit(overrider, reachableMethods, queue));
+                if (callee.split("#")[1].equals("<init>")) {
+                    getCallbacks(callee.substring(0, callee.indexOf("#"))).forEach(callback -> visit(callback, reachableMethods, queue));
+                }
+            }
+        }
+        return reachableMethods;
+    }
+
+    private static void visit(String call, Set<String> reachableMethods, Deque<String> queue) {
+        String[] callItems = call.split("#");
+        if (reachableMethods.add(String.format("%s#%s#%s", callItems[0], callItems[1], callItems[2]))) {
+            reachableMethods.add(callItems[0] + "#" + callItems[1]);
+            queue.add(call);
+        }
+    }
+
+    // 子类中重写 call 的方法
+    private static List<String> getOverriders(String call) {
+        String[] callItems = call.split("#");
+        int fAccess = Integer.parseInt(callItems[3]);
+        if ((fAccess & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) != 0 || callItems[1].equals("<init>")) {
+            return List.of();
+        }
+        List<String> results = new ArrayList<>();
+        for (String sub : ClassNodeUtil.getSubTypes(callItems[0])) {
+            ClassSummary summary = ClassNodeUtil.getClassSummary(sub);
+            if (summary == null) {
+                continue;
+            }
+            summary.methods.stream().filter(method -> method.name.equals(callItems[1]) && method.desc.equals(callItems[2]) && (method.access & Opcodes.ACC_ABSTRACT) == 0)
+                    .forEach(method -> results.add(String.format("%s#%s#%s#%s", sub, method.name, method.desc, method.access)));
+        }
+        return results;
+    }
+
+    // cName 中重写 JDK 父类/接口的方法，由 JDK 回调
+    private static List<String> getCallbacks(String cName) {
+        ClassSummary summary = ClassNodeUtil.getClassSummary(cName);
+        if (summary == null || JdkIndex.getInstance().contains(cName)) {
+            return List.of();
+        }
+        List<String> results = new ArrayList<>();
+        summary.methods.stream().filter(method -> (method.access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE | Opcodes.ACC_ABSTRACT)) == 0 && !method.name.startsWith("<")).forEach(method -> {
+            String owner = HierarchyUtil.getMatchSuperName(cName, method.name, method.desc);
+            if (owner != null && !owner.equals(cName) && JdkIndex.getInstance().contains(owner)) {
+                results.add(String.format("%s#%s#%s#%s", cName, method.name, method.desc, method.access));
+            }
+        });
+        return results;
+    }
+}
@@ -0,0 +1,390 @@
+package org.observer.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * 回溯结果的磁盘溢写：堆内存使用超过阈值后，已完成回溯的子树以 JSON 写入临时文件，树中只保留文件区间
+ * <p>
+ * 溢写的子树仍为 Map，访问时从文件中读取；保存结果时通过 {@link #write(Object, OutputStream)}
+ * 直接从文件复制，不再整体加载至内存，输出与 Gson 序列化一致
+ * <p>
+ * 父节点溢写时不重复写入其中已溢写的子树，以 {@link #marker} + 子树区间(offset, length)占位，读取时按顺序展开
+ * <p>
+ * 临时文件在首次溢写时创建，结果保存后通过 {@link #close(Map)} 删除，未调用时由 Cleaner 删除
+ * <p>
+ * -Dspill.threshold: 默认 0(不溢写)，已使用堆内存占最大堆内存的比例，如 0.7
+ * -Dspill.min.nodes: 默认 32，节点数不超过该值且不包含已溢写子树的子树保留在内存中
+ */
+public class ResultStore {
+    private final static Gson gson = new Gson();
+    private final static Cleaner cleaner = Cleaner.create();
+    private final static int bufferSize = 64 * 1024;
+    // 引用已溢写子树的占位字节，Gson 输出中的控制字符均被转义，不会出现该字节
+    private final static byte marker = 0;
+    // 占位字节之后的子树区间 offset、length
+    private final static int referenceSize = 2 * Long.BYTES;
+
+    private final double threshold;
+    private final int minNodes;
+    private final SpillFile file = new SpillFile();
+    private final Cleaner.Cleanable cleanable;
+    // 所有溢写共用的写入缓冲，只在持有 this 时使用
+    private OutputStream out;
+    private long size = 0;
+
+    private ResultStore(double threshold, int minNodes) {
+        this.threshold = threshold;
+        this.minNodes = minNodes;
+        // 结果树不再被引用时删除临时文件
+        this.cleanable = cleaner.register(this, file);
+    }
+
+    // 临时文件及其 channel，首次溢写时创建
+    private static class SpillFile implements Runnable {
+        private Path path;
+        private volatile FileChannel channel;
+
+        @Override
+        public synchronized void run() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                    Files.deleteIfExists(path);
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 未开启溢写时返回 null
+     */
+    static ResultStore create() {
+        double threshold = Double.parseDouble(System.getProperty("spill.threshold", "0"));
+        if (threshold <= 0) {
+            return null;
+        }
+        return new ResultStore(threshold, Integer.parseInt(System.getProperty("spill.min.nodes", "32")));
+    }
+
+    /**
+     * 堆内存使用超过阈值时将已完成的子树写入临时文件
+     *
+     * @return 未超过阈值或为小子树时返回 element 本身
+     */
+    Map<String, List> spill(Map<String, List> element) {
+        Runtime runtime = Runtime.getRuntime();
+        if (runtime.totalMemory() - runtime.freeMemory() < threshold * runtime.maxMemory() || isSmall(element, new int[]{minNodes})) {
+            return element;
+        }
+        synchronized (this) {
+            try {
+                if (out == null) {
+                    file.path = Files.createTempFile("result", ".spill");
+                    file.channel = FileChannel.open(file.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    out = new BufferedOutputStream(new ChannelOutputStream(), bufferSize);
+                }
+                long offset = size;
+                write(element, out, true);
+                out.flush();
+                return new SpilledTree(this, offset, size - offset);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // 节点数不超过 budget 且不包含已溢写的子树，溢写后节省的内存不足以抵消区间记录及写入的开销
+    private static boolean isSmall(Object value, int[] budget) {
+        if (value instanceof SpilledTree) {
+            return false;
+        }
+        if (value instanceof Map<?, ?> map) {
+            for (Object child : map.values()) {
+                if (--budget[0] < 0 || !isSmall(child, budget)) {
+                    return false;
+                }
+            }
+        } else if (value instanceof List<?> list) {
+            for (Object child : list) {
+                if (!isSmall(child, budget)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 删除 tree 溢写使用的临时文件，之后不可再访问 tree 中溢写的子树；未开启溢写时不做处理
+     */
+    public static void close(Map<?, ?> tree) {
+        if (Double.parseDouble(System.getProperty("spill.threshold", "0")) <= 0) {
+            return;
+        }
+        ResultStore store = find(tree);
+        if (store != null) {
+            store.cleanable.clean();
+        }
+    }
+
+    // 同一棵结果树只使用一个 ResultStore，只遍历内存中的部分
+    private static ResultStore find(Object value) {
+        if (value instanceof SpilledTree tree) {
+            return tree.store;
+        }
+        Collection<?> children = value instanceof Map<?, ?> map ? map.values() : value instanceof List<?> list ? list : List.of();
+        for (Object child : children) {
+            ResultStore store = find(child);
+            if (store != null) {
+                return store;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 以 Gson 格式流式输出结果树，溢写的子树直接从文件复制
+     */
+    public static void write(Object value, OutputStream out) throws IOException {
+        write(value, out, false);
+    }
+
+    // reference 为 true 时为溢写：已溢写的子树只写入占位字节及其区间
+    private static void write(Object value, OutputStream out, boolean reference) throws IOException {
+        if (value instanceof SpilledTree tree) {
+            if (reference) {
+                out.write(marker);
+                out.write(ByteBuffer.allocate(referenceSize).putLong(tree.offset).putLong(tree.length).array());
+            } else {
+                tree.open().transferTo(out);
+            }
+        } else if (value instanceof Map<?, ?> map) {
+            out.write('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                out.write(gson.toJson(String.valueOf(entry.getKey())).getBytes(StandardCharsets.UTF_8));
+                out.write(':');
+                write(entry.getValue(), out, reference);
+            }
+            out.write('}');
+        } else if (value instanceof List<?> list) {
+            out.write('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                write(list.get(i), out, reference);
+            }
+            out.write(']');
+        } else {
+            out.write(gson.toJson(value).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    static boolean isSpilled(Map map) {
+        return map instanceof SpilledTree;
+    }
+
+    /**
+     * 流式过滤溢写的子树，规则与 PrettyPrintUtil.filter 一致，只将包含关键词的部分读入内存
+     */
+    static Map filter(Map map, Set<String> filters) {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(((SpilledTree) map).open(), StandardCharsets.UTF_8))) {
+            return filter(reader, filters);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map filter(JsonReader reader, Set<String> filters) throws IOException {
+        Map results = new HashMap();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (filters.stream().anyMatch(key::contains)) {
+                results.put(key, gson.fromJson(reader, List.class));
+                continue;
+            }
+            List next = new ArrayList();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Map m = filter(reader, filters);
+                if (m.size() > 0) {
+                    next.add(m);
+                }
+            }
+            reader.endArray();
+            if (next.size() > 0) {
+                results.put(key, next);
+            }
+        }
+        reader.endObject();
+        return results;
+    }
+
+    // 追加写入至文件末尾
+    private class ChannelOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                size += file.channel.write(buffer, size);
+            }
+        }
+    }
+
+    // 读取文件区间 [offset, offset + length)
+    private class RegionInputStream extends InputStream {
+        private long position;
+        private final long end;
+
+        private RegionInputStream(long offset, long length) {
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int n = file.channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+
+    // 读取子树区间，遇到占位字节时按其后的区间展开子树
+    private class TreeInputStream extends InputStream {
+        private final InputStream region;
+        private final byte[] buffer = new byte[8 * 1024];
+        private int pos = 0;
+        private int limit = 0;
+        private InputStream child;
+
+        private TreeInputStream(long offset, long length) {
+            this.region = new RegionInputStream(offset, length);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (child != null) {
+                    int n = child.read(b, off, len);
+                    if (n >= 0) {
+                        return n;
+                    }
+                    child = null;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int n = 0;
+                while (n < len && pos + n < limit && buffer[pos + n] != marker) {
+                    n++;
+                }
+                if (n > 0) {
+                    System.arraycopy(buffer, pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+                pos++;
+                child = new TreeInputStream(readLong(), readLong());
+            }
+        }
+
+        // 缓冲为空时从区间读取，区间结束时返回 false
+        private boolean fill() throws IOException {
+            if (pos < limit) {
+                return true;
+            }
+            int n = region.read(buffer, 0, buffer.length);
+            if (n < 0) {
+                return false;
+            }
+            pos = 0;
+            limit = n;
+            return true;
+        }
+
+        private long readLong() throws IOException {
+            long value = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                if (!fill()) {
+                    throw new EOFException("broken spill reference");
+                }
+                value = (value << 8) | (buffer[pos++] & 0xff);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * 溢写至文件的子树 {caller -> [...]}，每次访问时从文件解析，不常驻内存
+     */
+    private static class SpilledTree extends AbstractMap<String, List> {
+        private final ResultStore store;
+        private final long offset;
+        private final long length;
+
+        private SpilledTree(ResultStore store, long offset, long length) {
+            this.store = store;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private InputStream open() {
+            return store.new TreeInputStream(offset, length);
+        }
+
+        @Override
+        public Set<Entry<String, List>> entrySet() {
+            try (Reader reader = new InputStreamReader(open(), StandardCharsets.UTF_8)) {
+                Map<String, List> map = gson.fromJson(reader, new TypeToken<LinkedHashMap<String, List>>() {
+                }.getType());
+                return map.entrySet();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
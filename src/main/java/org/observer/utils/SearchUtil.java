@@ -7,63 +7,76 @@ import jdk.internal.org.objectweb.asm.tree.MethodNode;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.observer.utils.StringUtil.x;
 
 
 public class SearchUtil {
-    private static final Set<String> allowPrefix = new HashSet<>();
-    private static final Set<String> stopInterfaces = new HashSet<>();
-
-    static {
-        allowPrefix.addAll(Arrays.asList(
-                "javax.sql.",
-                "javax.naming."
-        ));
-    }
-
     public static Map<String, List> getBTCaller(String calee) {
         Map<String, List> btTree = new ConcurrentHashMap<>();
-        getBTCallerInner(calee, new CopyOnWriteArrayList<>(), btTree, false);
+        getBTCallerInner(calee, new CopyOnWriteArrayList<>(), btTree, false, null, ResultStore.create());
         return btTree;
     }
 
     public static Map<String, List> getBTUpgradeCaller(String calee) {
         Map<String, List> btTree = new ConcurrentHashMap<>();
-        getBTCallerInner(calee, new CopyOnWriteArrayList<>(), btTree, true);
+        getBTCallerInner(calee, new CopyOnWriteArrayList<>(), btTree, true, null, ResultStore.create());
         return btTree;
     }
 
+    /**
+     * 以图结构返回回溯结果，包含嵌套格式中因重复访问而省略的边
+     */
+    public static CallGraph getBTCallerGraph(String calee) {
+        CallGraph graph = new CallGraph(calee);
+        getBTCallerInner(calee, new CopyOnWriteArrayList<>(), null, false, graph, null);
+        return graph;
+    }
+
+    public static CallGraph getBTUpgradeCallerGraph(String calee) {
+        CallGraph graph = new CallGraph(calee);
+        getBTCallerInner(calee, new CopyOnWriteArrayList<>(), null, true, graph, null);
+        return graph;
+    }
+
+    // 以 graph 接收回溯过程中发现的边，用于 CallStream
+    static void searchBTCaller(String calee, boolean upgrade, CallGraph graph) {
+        getBTCallerInner(calee, new CopyOnWriteArrayList<>(), null, upgrade, graph, null);
+    }
+
     /**
      * 递归搜索所有 call 的 caller
      * 当 upgrade 至 父类/接口 方法时，添加 {x -> [super(x)]} 输出
+     *
+     * @param root  为 null 时不构建嵌套结果，只记录至 graph
+     * @param graph 不为 null 时同时记录至图结构
+     * @param store 不为 null 时已完成回溯的子树可溢写至磁盘
      */
-    private static void getBTCallerInner(String callee, List<String> group, Map<String, List> root, boolean upgrade) {
+    private static void getBTCallerInner(String callee, List<String> group, Map<String, List> root, boolean upgrade, CallGraph graph, ResultStore store) {
         String[] callItems = callee.split("#");
         Map<String, List> finalRoot = root;
 
         if (upgrade) {
             String owner = DependencyUtil.getCalleeOwnerInterfaceName(callee);
             if (owner != null && !owner.equals(callItems[0])) {
-                if (stopInterfaces.contains(owner)) {
-                    return;
-                }
-                try {
-                    Class.forName(owner);
-                    String method = String.format("%s#%s", owner, callItems[1]);
-                    // 非白名单的 jdk 接口则不进行回溯
-                    if (!callItems[2].equals("null") && allowPrefix.stream().noneMatch(method::startsWith)) {
-                        stopInterfaces.add(owner);
+                // 非白名单的 jdk 接口则不进行回溯，每次命中均保留 callee 叶子
+                if (isStopInterface(owner, callItems)) {
+                    if (root != null) {
                         root.computeIfAbsent(callee, k -> new ArrayList<Map>());
-                        System.out.printf("[!] jdk interface stop: %s#%s, from %s%n", owner, callItems[1], callItems[0]);
-                        return;
                     }
-                } catch (ClassNotFoundException ignored) {
+                    return;
+                }
+                if (root != null) {
+                    finalRoot = new ConcurrentHashMap<>();
+                    List upList = root.computeIfAbsent(callee, k -> new ArrayList<Map>());
+                    upList.add(finalRoot);
                 }
-                finalRoot = new ConcurrentHashMap<>();
-                List upList = root.computeIfAbsent(callee, k -> new ArrayList<Map>());
-                upList.add(finalRoot);
                 callItems[0] = owner;
+                if (graph != null) {
+                    graph.addEdge(callee, String.join("#", callItems), CallGraph.UPGRADE);
+                }
             }
         }
         String finalCall = String.join("#", callItems);
@@ -72,24 +85,47 @@ public class SearchUtil {
                 System.out.println("Scan: " + finalCall + (!finalCall.equals(callee) ? " | From: " + callee : ""));
             }
             group.add(finalCall);
-            List elements = finalRoot.computeIfAbsent(finalCall, k -> new ArrayList<Map>());
-            DependencyUtil.getCallDependencies(finalCall).stream().map(f -> {
-                try {
-                    return getCallerFromFile(f, finalCall);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }).forEach(pCallers -> pCallers.forEach(pCaller -> {
-                try {
-                    Map<String, List> element = new ConcurrentHashMap<>();
-                    getBTCallerInner(pCaller, group, element, upgrade);
-                    if (!element.isEmpty()) {
-                        elements.add(element);
+            List elements = finalRoot != null ? finalRoot.computeIfAbsent(finalCall, k -> new ArrayList<Map>()) : null;
+            if (graph != null) {
+                graph.beforeSearch(finalCall);
+            }
+            try (Stream<List<String>> callerStream = callerStream(finalCall)) {
+                callerStream.forEach(pCallers -> pCallers.forEach(pCaller -> {
+                    try {
+                        // 跳过入口不可达的 caller，collapse 时保留为叶子节点
+                        if (ReachUtil.isPruneEnabled() && !ReachUtil.isReachable(pCaller)) {
+                            if (ReachUtil.isCollapseEnabled()) {
+                                addLeaf(elements, ReachUtil.unreachablePrefix + pCaller);
+                                if (graph != null) {
+                                    graph.addEdge(finalCall, ReachUtil.unreachablePrefix + pCaller, CallGraph.CALL);
+                                }
+                            }
+                            return;
+                        }
+                        // 传入 sink 的参数均为常量时不再展开，group 中首个元素为 sink(upgrade 后)
+                        if (FlowUtil.isPruneEnabled() && finalCall.equals(group.get(0)) && !FlowUtil.isArgumentFlow(pCaller, finalCall)) {
+                            addLeaf(elements, FlowUtil.constPrefix + pCaller);
+                            if (graph != null) {
+                                graph.addEdge(finalCall, FlowUtil.constPrefix + pCaller, CallGraph.CALL);
+                            }
+                            return;
+                        }
+                        if (graph != null) {
+                            graph.addEdge(finalCall, pCaller, CallGraph.CALL);
+                        }
+                        Map<String, List> element = elements != null ? new ConcurrentHashMap<>() : null;
+                        getBTCallerInner(pCaller, group, element, upgrade, graph, store);
+                        if (element != null && !element.isEmpty()) {
+                            elements.add(store != null ? store.spill(element) : element);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
                     }
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }));
+                }));
+            }
+            if (graph != null) {
+                graph.afterSearch(finalCall);
+            }
         }
         /*
           清除 upgrade 过程中添加的空 map
@@ -100,10 +136,115 @@ public class SearchUtil {
         }
     }
 
+    // 添加无 caller 的叶子节点 {caller: []}，elements 为 null 时不构建嵌套结果
+    private static void addLeaf(List elements, String caller) {
+        if (elements != null) {
+            Map<String, List> element = new ConcurrentHashMap<>();
+            element.put(caller, new ArrayList<Map>());
+            elements.add(element);
+        }
+    }
+
+    /**
+     * 获取 callee 提升后的父类/接口方法，无需提升时返回 callee，属于非白名单的 jdk 接口时返回 null
+     */
+    public static String getUpgradeCall(String callee) {
+        String[] callItems = callee.split("#");
+        String owner = DependencyUtil.getCalleeOwnerInterfaceName(callee);
+        if (owner == null || owner.equals(callItems[0])) {
+            return callee;
+        }
+        if (isStopInterface(owner, callItems)) {
+            return null;
+        }
+        callItems[0] = owner;
+        return String.join("#", callItems);
+    }
+
+    /**
+     * owner 为非白名单的 jdk 接口时停止回溯
+     * <p>
+     * 只由 owner 及方法决定，与之前的搜索无关，并发扫描及多次查询的结果一致；stopInterfaces 只记录已输出提示的接口
+     */
+    private static boolean isStopInterface(String owner, String[] callItems) {
+        AnalysisContext ctx = AnalysisContext.current();
+        if (callItems[2].equals("null") || !JdkIndex.getInstance().contains(owner)) {
+            return false;
+        }
+        String method = String.format("%s#%s", owner, callItems[1]);
+        if (ctx.allowPrefix.stream().anyMatch(method::startsWith)) {
+            return false;
+        }
+        if (ctx.stopInterfaces.add(owner)) {
+            System.out.printf("[!] jdk interface stop: %s#%s, from %s%n", owner, callItems[1], callItems[0]);
+        }
+        return true;
+    }
+
+    /**
+     * 单层回溯：获取 call 的直接 caller，不进行 upgrade
+     */
+    public static List<String> getCallers(String call) {
+        try (Stream<List<String>> callerStream = callerStream(call)) {
+            return callerStream.flatMap(List::stream).distinct().toList();
+        }
+    }
+
+    // 只搜索 coordinator 指定的 jar，用于分片 worker
+    static List<String> getCallers(String call, List<String> files) {
+        try (Stream<List<String>> callerStream = callerStream(call, files)) {
+            return callerStream.flatMap(List::stream).distinct().toList();
+        }
+    }
+
+    /**
+     * 依次搜索 call 所在 jar 的依赖项，每个 jar 对应一组 caller；开启分片时由各 worker 搜索后合并为一组
+     * <p>
+     * 需在使用后关闭，释放提前结束时未使用的预取
+     */
+    private static Stream<List<String>> callerStream(String call) {
+        AnalysisContext ctx = AnalysisContext.current();
+        if (ctx.shards != null) {
+            return Stream.of(ctx.shards.getCallers(call));
+        }
+        return callerStream(call, List.copyOf(DependencyUtil.getCallDependencies(call)));
+    }
+
+    private static Stream<List<String>> callerStream(String call, List<String> files) {
+        // 多个 jar 中 shade 的相同字节码只搜索一次
+        Set<String> scannedClasses = ConcurrentHashMap.newKeySet();
+        Map<String, PrefetchUtil.Task> prefetched = new ConcurrentHashMap<>();
+        return IntStream.range(0, files.size()).mapToObj(i -> {
+            try {
+                // 扫描当前 jar 前预取后续 jar
+                PrefetchUtil.prefetch(files, i + 1, prefetched);
+                PrefetchUtil.await(files.get(i));
+                return getCallerFromFile(files.get(i), call, scannedClasses);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }).onClose(() -> PrefetchUtil.release(prefetched));
+    }
+
     /**
      * 从单 jar 包中搜索 call 的 caller
      */
     public static List<String> getCallerFromFile(String file, String call) {
+        return getCallerFromFile(file, call, null);
+    }
+
+    /**
+     * @param scannedClasses 已搜索过的 class 内容标识，为 null 时不去重；开启 callerCache 时以缓存结果为准，不去重
+     */
+    private static List<String> getCallerFromFile(String file, String call, Set<String> scannedClasses) {
+        AnalysisContext ctx = AnalysisContext.current();
+        if (ctx.callerCacheEnabled) {
+            return ctx.callerCache.get(String.format("%s|%s", file, call), k -> List.copyOf(getCallerFromFileInner(file, call, null)));
+        }
+        return getCallerFromFileInner(file, call, scannedClasses);
+    }
+
+    private static List<String> getCallerFromFileInner(String file, String call, Set<String> scannedClasses) {
         String[] splits = call.split("#");
         String cName = splits[0];
         String fName = splits[1];
@@ -118,6 +259,9 @@ public class SearchUtil {
         }
 
         int fAccess = Integer.parseInt(splits[3]);
+        if (file.equals(ClassNodeUtil.jdkFileName) && JdkCallerIndex.isEnabled()) {
+            return JdkCallerIndex.getInstance().getCallers(cName, fName, fDesc, fAccess);
+        }
         boolean isPrivate = (fAccess & Opcodes.ACC_PRIVATE) != 0;
         boolean isProtected = (fAccess & Opcodes.ACC_PROTECTED) != 0;
 
@@ -126,10 +270,10 @@ public class SearchUtil {
             results.addAll(getCallersFromClassNode(ClassNodeUtil.getClassNodeFromCache(cName), cName, fName, fDesc));
         } else if (isProtected) {
             // 从 cName 同 pkgName 类中搜索 Caller
-            ClassNodeUtil.loadAllPkgClassNodeFromFile(file, ClassNodeUtil.getPkgName(cName)).stream().map(classNode -> getCallersFromClassNode(classNode, cName, fName, fDesc)).forEach(results::addAll);
+            ClassNodeUtil.loadAllPkgClassNodeFromFile(file, ClassNodeUtil.getPkgName(cName), scannedClasses).stream().map(classNode -> getCallersFromClassNode(classNode, cName, fName, fDesc)).forEach(results::addAll);
         } else {
             // 从所有 ClassNode 中进行搜索
-            ClassNodeUtil.loadAllClassNodeFromFile(file).values().stream().map(classNode -> getCallersFromClassNode(classNode, cName, fName, fDesc)).forEach(results::addAll);
+            ClassNodeUtil.loadAllClassNodeFromFile(file, scannedClasses).values().stream().map(classNode -> getCallersFromClassNode(classNode, cName, fName, fDesc)).forEach(results::addAll);
         }
 
         return results;
@@ -155,34 +299,37 @@ public class SearchUtil {
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
-        }).map(methodNode -> {
-            /*
-             1. 存在方法调用位于 lambda 中的情况：lambda$getCombinationOfhead$0，实际对应的方法为 getCombinationOfhead
-             为避免存在重载函数的问题，这里直接忽略 desc 和 access
-             2. 存在 seq_containsBI.this.checkMethodArgCount 方法调用，fName = access$1000
-            */
-            String newName = MethodUtil.lambdaTrim(methodNode.name);
-            String name = x(classNode.name);
-            if (!newName.equals(methodNode.name)) {
-                if (System.getProperty("log.print", "false").equals("true")) {
-                    System.out.printf("[!] is lambda method: %s.%s -> %s%n", classNode.name, methodNode.name, newName);
-                }
-                List<MethodNode> methods = MethodUtil.getMaxParamMatchMethods(newName, classNode);
-                if (methods.size() > 1) {
-                    return String.format("%s#%s#null#1", name, newName);
-                } else if (methods.size() == 1) {
-                    return String.format("%s#%s#%s#1", name, newName, methods.get(0).desc);
-                } else {
-                    // 存在 lambda$null$2 命名情况
-                    return String.format("%s#%s#null#%s", name, newName, methodNode.access);
-                }
+        }).map(methodNode -> toCaller(classNode, methodNode)).toList();
+    }
+
+    // caller 格式 cName#fName#fDesc#fAccess，lambda 方法转换为所在的方法
+    static String toCaller(ClassNode classNode, MethodNode methodNode) {
+        /*
+         1. 存在方法调用位于 lambda 中的情况：lambda$getCombinationOfhead$0，实际对应的方法为 getCombinationOfhead
+         为避免存在重载函数的问题，这里直接忽略 desc 和 access
+         2. 存在 seq_containsBI.this.checkMethodArgCount 方法调用，fName = access$1000
+        */
+        String newName = MethodUtil.lambdaTrim(methodNode.name);
+        String name = x(classNode.name);
+        if (!newName.equals(methodNode.name)) {
+            if (System.getProperty("log.print", "false").equals("true")) {
+                System.out.printf("[!] is lambda method: %s.%s -> %s%n", classNode.name, methodNode.name, newName);
+            }
+            List<MethodNode> methods = MethodUtil.getMaxParamMatchMethods(newName, classNode);
+            if (methods.size() > 1) {
+                return String.format("%s#%s#null#1", name, newName);
+            } else if (methods.size() == 1) {
+                return String.format("%s#%s#%s#1", name, newName, methods.get(0).desc);
             } else {
-                return String.format("%s#%s#%s#%s", name, MethodUtil.lambdaTrim(methodNode.name), methodNode.desc, methodNode.access);
+                // 存在 lambda$null$2 命名情况
+                return String.format("%s#%s#null#%s", name, newName, methodNode.access);
             }
-        }).toList();
+        } else {
+            return String.format("%s#%s#%s#%s", name, MethodUtil.lambdaTrim(methodNode.name), methodNode.desc, methodNode.access);
+        }
     }
 
     public static void addAllowPrefix(String prefix) {
-        allowPrefix.add(prefix);
+        AnalysisContext.current().allowPrefix.add(prefix);
     }
 }
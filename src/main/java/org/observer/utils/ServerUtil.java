@@ -0,0 +1,148 @@
+package org.observer.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 常驻分析服务：加载一次 lib 目录后保持依赖索引及缓存常驻，通过本地 HTTP 接口提供回溯查询
+ * <p>
+ * GET /caller?call=xxx   等同 SearchUtil.getBTCaller
+ * GET /upgrade?call=xxx  等同 SearchUtil.getBTUpgradeCaller
+ * GET /status            查看服务状态
+ */
+public class ServerUtil {
+    private final static Gson gson = new Gson();
+    private final static int defaultPort = 8787;
+
+    private final AnalysisContext context;
+    // 缓存 mode|call -> json 查询结果，结果只由 call 决定，与之前的查询无关(jdk 接口停止节点见 SearchUtil.isStopInterface)
+    private final Cache<String, String> resultCache = Caffeine.newBuilder()
+            .maximumWeight(256L * 1024 * 1024)
+            .weigher((String key, String value) -> value.length())
+            .build();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public ServerUtil(AnalysisContext context) {
+        this.context = context;
+        this.context.setCallerCacheEnabled(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: ServerUtil <libDir> [port]");
+            return;
+        }
+        ServerUtil.start(args[0], args.length > 1 ? Integer.parseInt(args[1]) : defaultPort);
+    }
+
+    // 解析 lib 目录并启动服务
+    public static ServerUtil start(String dir, int port) throws Exception {
+        AnalysisContext context = new AnalysisContext();
+        context.call(() -> {
+            DependencyUtil.resolveDir(dir);
+            return null;
+        });
+        ServerUtil server = new ServerUtil(context);
+        server.listen(port);
+        return server;
+    }
+
+    public void listen(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/caller", exchange -> handleQuery(exchange, false));
+        server.createContext("/upgrade", exchange -> handleQuery(exchange, true));
+        server.createContext("/status", this::handleStatus);
+        // 每个查询运行于独立的虚拟线程
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.start();
+        System.out.printf("[+] Server Listen On %s:%s%n", server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+        resultCache.invalidateAll();
+        context.close();
+        System.out.println("[+] Server Stopped");
+    }
+
+    private void handleQuery(HttpExchange exchange, boolean upgrade) throws IOException {
+        String call = getQueryParams(exchange).get("call");
+        if (call == null || call.split("#").length != 4) {
+            response(exchange, 400, gson.toJson(Map.of("error", "call must be cName#fName#fDesc#fAccess")));
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            String key = String.format("%s|%s", upgrade, call);
+            // 不使用 resultCache.get(key, loader)，避免耗时查询阻塞同一 bin 中的其他查询
+            String result = resultCache.getIfPresent(key);
+            if (result == null) {
+                Map<String, List> tree = context.call(() -> upgrade ? SearchUtil.getBTUpgradeCaller(call) : SearchUtil.getBTCaller(call));
+                result = gson.toJson(tree);
+                // 结果已序列化，删除溢写的临时文件
+                ResultStore.close(tree);
+                resultCache.put(key, result);
+            }
+            System.out.printf("[SpendTime: %sms] %s%n", (System.currentTimeMillis() - start), call);
+            response(exchange, 200, result);
+        } catch (Exception | StackOverflowError | OutOfMemoryError e) {
+            // 回溯层数过深等错误同样返回 500，避免客户端一直等待
+            response(exchange, 500, gson.toJson(Map.of("error", String.valueOf(e))));
+        }
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        Map<String, Object> status = new HashMap<>();
+        status.put("loadedJarCount", context.loadedJarCount.get());
+        status.put("cachedResults", resultCache.estimatedSize());
+        status.put("cachedCallers", context.callerCache.estimatedSize());
+        response(exchange, 200, gson.toJson(status));
+    }
+
+    private static Map<String, String> getQueryParams(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int idx = pair.indexOf("=");
+                if (idx > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, idx), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(idx + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return params;
+    }
+
+    private static void response(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package org.observer.utils;
+
+import com.google.gson.Gson;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多进程分片搜索：coordinator 将 lib 中的 jar 按大小均分为 N 个分片，启动 N 个本地 worker JVM，
+ * 每个 worker 只加载并搜索所属分片的 ClassNode，coordinator 在回溯的每一层合并各 worker 的 caller
+ * <p>
+ * coordinator 与 worker 之间通过本地 socket 通信，每行一个 JSON 消息：
+ * <pre>
+ * worker -> coordinator: {"shard":0}
+ * coordinator -> worker: {"files":["a.jar","b.jar"]}
+ * coordinator -> worker: {"id":1,"call":"a.B#c#null#1","files":["a.jar"]}
+ * worker -> coordinator: {"id":1,"callers":["a.D#e#()V#1"]}
+ * </pre>
+ * worker 从 coordinator 保存的快照恢复依赖解析结果，不重复解析 lib 目录；
+ * call 的依赖范围(含 scope.mode=bytecode 的引用索引)只由 coordinator 计算，请求中只包含所属分片内需要搜索的 jar
+ * <p>
+ * -Dshard.worker.opts: worker JVM 的额外参数，如 "-Xmx8g"，以空格分隔
+ */
+public class ShardUtil {
+    private final static Gson gson = new Gson();
+    private final static int connectTimeout = 120 * 1000;
+
+    private final AnalysisContext context;
+    private final List<Worker> workers = new ArrayList<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Path snapshotDir;
+    private ServerSocket serverSocket;
+
+    private ShardUtil(AnalysisContext context, Path snapshotDir) {
+        this.context = context;
+        this.snapshotDir = snapshotDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 5 && args[0].equals("worker")) {
+            work(args[1], args[2], Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            return;
+        }
+        if (args.length < 3) {
+            System.out.println("Usage: ShardUtil <libDir> <workers> <call>...");
+            return;
+        }
+        ShardUtil shards = ShardUtil.start(args[0], Integer.parseInt(args[1]));
+        try {
+            for (int i = 2; i < args.length; i++) {
+                String call = args[i];
+                Map<String, List> tree = shards.getContext().call(() -> SearchUtil.getBTUpgradeCaller(call));
+                PrettyPrintUtil.prettyPrint(tree);
+                ResultStore.close(tree);
+            }
+        } finally {
+            shards.stop();
+        }
+    }
+
+    /**
+     * 解析 lib 目录并启动 count 个 worker，返回后通过 {@link #getContext()} 执行的回溯均由 worker 搜索
+     */
+    public static ShardUtil start(String dir, int count) throws Exception {
+        AnalysisContext context = new AnalysisContext();
+        Path snapshotDir = Files.createTempDirectory("shard");
+        String snapshot = snapshotDir.resolve("registry.bin").toString();
+        ShardUtil shards = new ShardUtil(context, snapshotDir);
+        try {
+            List<List<String>> shardFiles = context.call(() -> {
+                DependencyUtil.resolveDir(dir, snapshot);
+                return partition(count);
+            });
+            shards.launch(dir, snapshot, shardFiles);
+        } catch (Exception e) {
+            shards.stop();
+            throw e;
+        }
+        context.shards = shards;
+        return shards;
+    }
+
+    // 按 jar 大小降序依次分配至当前总大小最小的分片
+    private static List<List<String>> partition(int count) {
+        AnalysisContext ctx = AnalysisContext.current();
+        List<List<String>> shardFiles = new ArrayList<>();
+        long[] sizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            shardFiles.add(new ArrayList<>());
+        }
+        Map<String, Long> fileSizes = new HashMap<>();
+        DependencyUtil.getAllDependencies().stream().filter(file -> !ctx.loadFailedJarFiles.contains(file)).forEach(file -> fileSizes.put(file, PrefetchUtil.getSize(file)));
+        fileSizes.entrySet().stream().sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey())).forEach(entry -> {
+            int min = 0;
+            for (int i = 1; i < count; i++) {
+                if (sizes[i] < sizes[min]) {
+                    min = i;
+                }
+            }
+            shardFiles.get(min).add(entry.getKey());
+            sizes[min] += entry.getValue();
+        });
+        return shardFiles;
+    }
+
+    private void launch(String dir, String snapshot, List<List<String>> shardFiles) throws IOException {
+        serverSocket = new ServerSocket(0, shardFiles.size(), InetAddress.getLoopbackAddress());
+        // worker 启动失败时不无限等待
+        serverSocket.setSoTimeout(connectTimeout);
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        // 继承当前 JVM 的参数(--add-exports 及系统属性)
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments().stream().filter(arg -> !arg.startsWith("-agentlib")).toList());
+        String opts = System.getProperty("shard.worker.opts", "").trim();
+        if (!opts.isEmpty()) {
+            command.addAll(Arrays.asList(opts.split("\\s+")));
+        }
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), ShardUtil.class.getName(), "worker"));
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < shardFiles.size(); i++) {
+            List<String> workerCommand = new ArrayList<>(command);
+            workerCommand.addAll(List.of(dir, snapshot, String.valueOf(serverSocket.getLocalPort()), String.valueOf(i)));
+            processes.add(new ProcessBuilder(workerCommand).inheritIO().start());
+        }
+        try {
+            for (int i = 0; i < shardFiles.size(); i++) {
+                Socket socket = serverSocket.accept();
+                Worker worker = new Worker(socket);
+                Message hello = worker.read();
+                worker.process = processes.get(hello.shard);
+                worker.files = new HashSet<>(shardFiles.get(hello.shard));
+                workers.add(worker);
+                Message assign = new Message();
+                assign.files = shardFiles.get(hello.shard);
+                worker.write(assign);
+                System.out.printf("[+] Shard %s Connected, files: %s%n", hello.shard, assign.files.size());
+            }
+        } catch (IOException e) {
+            processes.forEach(Process::destroyForcibly);
+            throw e;
+        }
+    }
+
+    public AnalysisContext getContext() {
+        return context;
+    }
+
+    /**
+     * 各 worker 并行搜索所属分片中 call 的 caller，按分片顺序合并去重；分片中没有需要搜索的 jar 时不发送请求
+     */
+    List<String> getCallers(String call) {
+        Set<String> dependencies = DependencyUtil.getCallDependencies(call);
+        List<Future<List<String>>> futures = new ArrayList<>();
+        for (Worker worker : workers) {
+            List<String> files = dependencies.stream().filter(worker.files::contains).toList();
+            if (!files.isEmpty()) {
+                futures.add(executor.submit(() -> worker.request(call, files)));
+            }
+        }
+        Set<String> callers = new LinkedHashSet<>();
+        for (Future<List<String>> future : futures) {
+            try {
+                callers.addAll(future.get());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return new ArrayList<>(callers);
+    }
+
+    public void stop() {
+        context.shards = null;
+        for (Worker worker : workers) {
+            worker.close();
+        }
+        workers.clear();
+        executor.shutdownNow();
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {
+        }
+        context.close();
+        try {
+            FileUtils.deleteDirectory(snapshotDir.toFile());
+        } catch (IOException e) {
+            System.out.println("[-] delete shard snapshot failed: " + e.getMessage());
+        }
+        System.out.println("[+] Shards Stopped");
+    }
+
+    // worker 进程：恢复快照后只搜索请求中指定的 jar，连接断开时退出
+    private static void work(String dir, String snapshot, int port, int shard) throws Exception {
+        AnalysisContext context = new AnalysisContext();
+        context.setCallerCacheEnabled(true);
+        context.call(() -> {
+            DependencyUtil.resolveDir(dir, snapshot);
+            return null;
+        });
+        try (Worker coordinator = new Worker(new Socket(InetAddress.getLoopbackAddress(), port))) {
+            Message hello = new Message();
+            hello.shard = shard;
+            coordinator.write(hello);
+            // 所属分片的 jar，请求中的 jar 均在其中
+            Set<String> shardFiles = new HashSet<>(coordinator.read().files);
+            Message request;
+            while ((request = coordinator.read()) != null) {
+                Message response = new Message();
+                response.id = request.id;
+                try {
+                    String call = request.call;
+                    List<String> files = request.files.stream().filter(shardFiles::contains).toList();
+                    response.callers = context.call(() -> SearchUtil.getCallers(call, files));
+                } catch (Exception e) {
+                    response.error = String.valueOf(e);
+                }
+                coordinator.write(response);
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+    private static class Message {
+        Integer shard;
+        List<String> files;
+        Long id;
+        String call;
+        List<String> callers;
+        String error;
+    }
+
+    // 单个连接，同一时刻只有一个请求
+    private static class Worker implements Closeable {
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final Writer writer;
+        private Process process;
+        // 所属分片的 jar
+        private Set<String> files;
+        private long nextId = 0;
+
+        private Worker(Socket socket) throws IOException {
+            this.socket = socket;
+            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        private synchronized List<String> request(String call, List<String> files) throws IOException {
+            Message request = new Message();
+            request.id = nextId++;
+            request.call = call;
+            request.files = files;
+            write(request);
+            Message response = read();
+            if (response == null) {
+                throw new EOFException("shard worker disconnected");
+            }
+            if (response.error != null) {
+                throw new RuntimeException(response.error);
+            }
+            return response.callers;
+        }
+
+        private void write(Message message) throws IOException {
+            writer.write(gson.toJson(message));
+            writer.write("\n");
+            writer.flush();
+        }
+
+        private Message read() throws IOException {
+            String line = reader.readLine();
+            return line == null ? null : gson.fromJson(line, Message.class);
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            if (process != null) {
+                try {
+                    if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    process.destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
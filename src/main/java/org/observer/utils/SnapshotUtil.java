@@ -0,0 +1,218 @@
+package org.observer.utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * DependencyUtil 注册表的二进制快照，用于跳过 resolveDir 对所有 jar 的重复解析
+ * <p>
+ * 文件格式：magic | version | 字符串表 | jar 指纹(路径, 大小, 修改时间) | 各注册表(字符串表下标)
+ * 只有 lib 目录下的 jar 集合及指纹与快照完全一致时才会恢复
+ */
+public class SnapshotUtil {
+    private final static int magic = 0x43415344;
+    private final static int version = 2;
+
+    // 保存当前上下文的注册表
+    public static void save(String dir, String snapshot) throws IOException {
+        AnalysisContext ctx = AnalysisContext.current();
+        Map<String, long[]> fingerprints = getFingerprints(dir);
+        StringTable table = new StringTable();
+        fingerprints.keySet().forEach(table::index);
+        List<Map<String, Set<String>>> multiMaps = multiMaps(ctx);
+        multiMaps.forEach(map -> map.forEach((k, v) -> {
+            table.index(k);
+            v.forEach(table::index);
+        }));
+        pairMaps(ctx).forEach(map -> map.forEach((k, v) -> {
+            table.index(k);
+            table.index(v);
+        }));
+        sets(ctx).forEach(set -> set.forEach(table::index));
+        table.index(ctx.jdkFilePath == null ? "" : ctx.jdkFilePath);
+
+        File file = new File(snapshot);
+        if (file.getParentFile() != null && !file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            throw new IOException("mkdir failed: " + file.getParentFile());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeInt(table.strings.size());
+            for (String str : table.strings) {
+                out.writeUTF(str);
+            }
+            out.writeInt(fingerprints.size());
+            for (Map.Entry<String, long[]> entry : fingerprints.entrySet()) {
+                out.writeInt(table.index(entry.getKey()));
+                out.writeLong(entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+            for (Map<String, Set<String>> map : multiMaps) {
+                out.writeInt(map.size());
+                for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+                    out.writeInt(table.index(entry.getKey()));
+                    out.writeInt(entry.getValue().size());
+                    for (String value : entry.getValue()) {
+                        out.writeInt(table.index(value));
+                    }
+                }
+            }
+            for (Map<String, String> map : pairMaps(ctx)) {
+                out.writeInt(map.size());
+                for (Map.Entry<String, String> entry : map.entrySet()) {
+                    out.writeInt(table.index(entry.getKey()));
+                    out.writeInt(table.index(entry.getValue()));
+                }
+            }
+            for (Set<String> set : sets(ctx)) {
+                out.writeInt(set.size());
+                for (String value : set) {
+                    out.writeInt(table.index(value));
+                }
+            }
+            out.writeInt(table.index(ctx.jdkFilePath == null ? "" : ctx.jdkFilePath));
+            out.writeInt(ctx.loadedJarCount.get());
+        }
+        System.out.printf("[+] Save Snapshot: %s, jar count: %s%n", snapshot, fingerprints.size());
+    }
+
+    /**
+     * 恢复注册表至当前上下文
+     *
+     * @return 快照不存在、格式不匹配或 jar 指纹发生变化时返回 false
+     */
+    public static boolean load(String dir, String snapshot) throws IOException {
+        File file = new File(snapshot);
+        if (!file.isFile()) {
+            return false;
+        }
+        AnalysisContext ctx = AnalysisContext.current();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != magic || in.readInt() != version) {
+                System.out.println("[-] snapshot version mismatch: " + snapshot);
+                return false;
+            }
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            Map<String, long[]> saved = new HashMap<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                saved.put(strings[in.readInt()], new long[]{in.readLong(), in.readLong()});
+            }
+            Map<String, long[]> current = getFingerprints(dir);
+            if (!isSameFingerprints(saved, current)) {
+                System.out.println("[!] snapshot is outdated: " + snapshot);
+                return false;
+            }
+            List<Map<String, Set<String>>> multiMaps = new ArrayList<>();
+            for (int m = 0; m < multiMaps(ctx).size(); m++) {
+                Map<String, Set<String>> map = new HashMap<>();
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    String key = strings[in.readInt()];
+                    Set<String> values = ConcurrentHashMap.newKeySet();
+                    int valueSize = in.readInt();
+                    for (int j = 0; j < valueSize; j++) {
+                        values.add(strings[in.readInt()]);
+                    }
+                    map.put(key, values);
+                }
+                multiMaps.add(map);
+            }
+            List<Map<String, String>> pairMaps = new ArrayList<>();
+            for (int m = 0; m < pairMaps(ctx).size(); m++) {
+                Map<String, String> map = new HashMap<>();
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    map.put(strings[in.readInt()], strings[in.readInt()]);
+                }
+                pairMaps.add(map);
+            }
+            List<Set<String>> sets = new ArrayList<>();
+            for (int s = 0; s < sets(ctx).size(); s++) {
+                Set<String> set = new HashSet<>();
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    set.add(strings[in.readInt()]);
+                }
+                sets.add(set);
+            }
+            String jdkFilePath = strings[in.readInt()];
+            int loadedJarCount = in.readInt();
+
+            // 全部读取成功后再写入上下文，避免恢复一半的状态
+            List<Map<String, Set<String>>> targetMaps = multiMaps(ctx);
+            for (int i = 0; i < targetMaps.size(); i++) {
+                targetMaps.get(i).putAll(multiMaps.get(i));
+            }
+            List<Map<String, String>> targetPairMaps = pairMaps(ctx);
+            for (int i = 0; i < targetPairMaps.size(); i++) {
+                targetPairMaps.get(i).putAll(pairMaps.get(i));
+            }
+            List<Set<String>> targetSets = sets(ctx);
+            for (int i = 0; i < targetSets.size(); i++) {
+                targetSets.get(i).addAll(sets.get(i));
+            }
+            ctx.jdkFilePath = jdkFilePath.isEmpty() ? null : jdkFilePath;
+            ctx.loadedJarCount.addAndGet(loadedJarCount);
+            ctx.dependencyGraph = null;
+        } catch (IOException | RuntimeException e) {
+            // 快照损坏(截断、下标越界等)时丢弃，重新解析
+            System.out.println("[-] snapshot is broken: " + snapshot + ", error: " + e);
+            return false;
+        }
+        System.out.printf("[+] Load Snapshot: %s%n", snapshot);
+        return true;
+    }
+
+    private static List<Map<String, Set<String>>> multiMaps(AnalysisContext ctx) {
+        return List.of(ctx.artifactIdGroupFileMap, ctx.fileArtifactIdGroupMap, ctx.pkgNameFileMap, ctx.filePkgNameMap);
+    }
+
+    private static List<Map<String, String>> pairMaps(AnalysisContext ctx) {
+        return List.of(ctx.fileArtifactIdMap, ctx.digestFileMap, ctx.duplicateFileMap);
+    }
+
+    private static List<Set<String>> sets(AnalysisContext ctx) {
+        return List.of(ctx.missArtifactIdFiles, ctx.missPomFiles, ctx.loadFailedJarFiles);
+    }
+
+    // jar 指纹：path -> [size, lastModified]
+    private static Map<String, long[]> getFingerprints(String dir) throws IOException {
+        Map<String, long[]> fingerprints = new TreeMap<>();
+        try (Stream<Path> entries = Files.walk(Paths.get(dir))) {
+            entries.filter(f -> ArchiveUtil.isArchive(f.toFile().getName())).forEach(f -> {
+                File file = f.toFile();
+                fingerprints.put(f.toString(), new long[]{file.length(), file.lastModified()});
+            });
+        }
+        return fingerprints;
+    }
+
+    private static boolean isSameFingerprints(Map<String, long[]> saved, Map<String, long[]> current) {
+        if (!saved.keySet().equals(current.keySet())) {
+            return false;
+        }
+        return saved.entrySet().stream().allMatch(entry -> Arrays.equals(entry.getValue(), current.get(entry.getKey())));
+    }
+
+    private static class StringTable {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        private int index(String str) {
+            return indexes.computeIfAbsent(str, k -> {
+                strings.add(k);
+                return strings.size() - 1;
+            });
+        }
+    }
+}
@@ -4,42 +4,121 @@ import org.codehaus.plexus.util.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
+/**
+ * 漏洞 sink 扫描器，每个扫描器的结果写入各自的 saveFile
+ * <p>
+ * -Dvuln.threads: 默认 1，大于 1 时 all() 并发执行各扫描器，共享同一上下文的 ClassNode 缓存及索引
+ * -Dvuln.scanner.heap: 默认 1024，单个扫描器预估占用的堆内存(MB)，并发数不超过 最大堆内存 / 该值
+ */
 public class VulnUtil {
     private String saveDir = null;
-    private String saveFile = "default.json";
+    // 并发执行时每个扫描器线程独立设置
+    private final ThreadLocal<String> saveFile;
+    // 不为 null 时 scan 只记录 sink，用于预估扫描器开销
+    private final ThreadLocal<List<String>> plannedCalls = new ThreadLocal<>();
+    private Checkpoint checkpoint = null;
 
     public VulnUtil() {
+        this(null);
     }
 
     public VulnUtil(String saveDir) {
-        this.saveDir = saveDir;
+        this(saveDir, "default.json");
     }
 
     public VulnUtil(String saveDir, String savFile) {
         this.saveDir = saveDir;
-        this.saveFile = savFile;
+        this.saveFile = ThreadLocal.withInitial(() -> savFile);
     }
 
     public void all() {
         init();
-        componentScanner();
-        redisOpScanner();
-        dispatchScanner();
-        jdbcScanner();
-        ssrfScanner();
-        templateScanner();
-        jndiScanner();
-        ognlScanner();
-        deserializeScanner();
-        fastjsonScanner();
-        expressionScanner();
-        commandInjectionScanner();
-        fileSecScanner();
-        zipSlipScanner();
-        xxeScanner();
+        List<Runnable> scanners = List.of(
+                this::componentScanner,
+                this::redisOpScanner,
+                this::dispatchScanner,
+                this::jdbcScanner,
+                this::ssrfScanner,
+                this::templateScanner,
+                this::jndiScanner,
+                this::ognlScanner,
+                this::deserializeScanner,
+                this::fastjsonScanner,
+                this::expressionScanner,
+                this::commandInjectionScanner,
+                this::fileSecScanner,
+                this::zipSlipScanner,
+                this::xxeScanner
+        );
+        int threads = getThreads();
+        if (threads <= 1) {
+            scanners.forEach(Runnable::run);
+        } else {
+            runConcurrently(scanners, threads);
+        }
+    }
+
+    // 并发数受 vuln.threads 及堆内存预算限制
+    private static int getThreads() {
+        int threads = Integer.parseInt(System.getProperty("vuln.threads", "1"));
+        long budget = Long.parseLong(System.getProperty("vuln.scanner.heap", "1024")) * 1024 * 1024;
+        return (int) Math.max(1, Math.min(threads, Runtime.getRuntime().maxMemory() / budget));
+    }
+
+    /**
+     * 按预估开销降序提交扫描器，开销大的扫描器优先执行，减少最后单个扫描器拖尾
+     */
+    private void runConcurrently(List<Runnable> scanners, int threads) {
+        AnalysisContext ctx = AnalysisContext.current();
+        Map<Runnable, Long> costs = new HashMap<>();
+        scanners.forEach(scanner -> costs.put(scanner, estimate(scanner)));
+        List<Runnable> ordered = scanners.stream().sorted(Comparator.comparing(costs::get).reversed()).toList();
+        System.out.printf("[+] Run %s Scanners Concurrently, threads: %s%n", scanners.size(), threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("scanner-", 0).factory());
+        try {
+            List<Future<?>> futures = ordered.stream().map(scanner -> executor.submit(ctx.wrap(scanner))).collect(Collectors.toList());
+            RuntimeException error = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    if (error == null) {
+                        error = new RuntimeException(e);
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // 扫描器开销：各 sink 搜索范围内 jar 的大小之和
+    private long estimate(Runnable scanner) {
+        List<String> calls = new ArrayList<>();
+        plannedCalls.set(calls);
+        try {
+            scanner.run();
+        } finally {
+            plannedCalls.remove();
+        }
+        long cost = 0;
+        for (String call : calls) {
+            try {
+                cost += DependencyUtil.getCallDependencies(call).stream().mapToLong(PrefetchUtil::getSize).sum();
+            } catch (Exception e) {
+                System.out.println("[-] estimate failed: " + call + ", Error: " + e.getMessage());
+            }
+        }
+        return cost;
     }
 
     public void others() {
@@ -48,6 +127,11 @@ public class VulnUtil {
 
     public void init() {
         if (saveDir != null) {
+            if (Checkpoint.isResumeEnabled() && Checkpoint.exists(saveDir)) {
+                System.out.println("[+] Resume From Checkpoint " + saveDir);
+                checkpoint = Checkpoint.load(saveDir);
+                return;
+            }
             File dir = new File(saveDir);
             if (dir.exists()) {
                 try {
@@ -61,20 +145,23 @@ public class VulnUtil {
             if (!dir.mkdirs()) {
                 throw new RuntimeException("mkdir failed: " + dir);
             }
+            if (Checkpoint.isEnabled()) {
+                checkpoint = Checkpoint.create(saveDir);
+            }
         }
     }
 
     public void propertyScanner() {
-        this.saveFile = "property.json";
-        System.out.println("[+] Start PropertyScanner...");
+        saveFile.set("property.json");
+        start("PropertyScanner");
         scan("java.lang.System#getProperty#(Ljava/lang/String;)Ljava/lang/String;#1");
         scan("java.lang.System#setProperty#(Ljava/lang/String;,Ljava/lang/String;)Ljava/lang/String;#1");
         scan("javax.servlet.ServletRequest#setAttribute#(Ljava/lang/String;Ljava/lang/Object;)V#1");
     }
 
     public void redisOpScanner() {
-        this.saveFile = "redis.json";
-        System.out.println("[+] Start RedisOpScanner...");
+        saveFile.set("redis.json");
+        start("RedisOpScanner");
         scan("org.springframework.data.redis.core.ValueOperations#get#null#1");
         scan("org.springframework.data.redis.core.ValueOperations#getAndSet#null#1");
         scan("org.springframework.data.redis.core.ValueOperations#set#null#1");
@@ -85,34 +172,34 @@ public class VulnUtil {
     }
 
     public void dispatchScanner() {
-        this.saveFile = "dispatch.json";
-        System.out.println("[+] Start DispatchScanner...");
+        saveFile.set("dispatch.json");
+        start("DispatchScanner");
         scan("javax.servlet.RequestDispatcher#forward#(Ljavax/servlet/ServletRequest;Ljavax/servlet/ServletResponse;)V#1");
         scan("javax.servlet.RequestDispatcher#include#(Ljavax/servlet/ServletRequest;Ljavax/servlet/ServletResponse;)V#1");
     }
 
     public void jdbcScanner() {
-        this.saveFile = "jdbc.json";
-        System.out.println("[+] Start JdbcScanner...");
+        saveFile.set("jdbc.json");
+        start("JdbcScanner");
         scan("java.sql.DriverManager#getConnection#null#1");
     }
 
     public void componentScanner() {
-        this.saveFile = "component.json";
-        System.out.println("[+] Start ComponentScanner...");
+        saveFile.set("component.json");
+        start("ComponentScanner");
         // apache cxf ssrf: CVE-2022-46364
         scan("org.apache.cxf.aegis.type.mtom.ByteArrayType#readAttachment#null#1");
     }
 
     public void ssrfScanner() {
-        this.saveFile = "ssrf.json";
-        System.out.println("[+] Start SSRFScanner...");
+        saveFile.set("ssrf.json");
+        start("SSRFScanner");
         scan("java.net.URL#openConnection#()Ljava/net/URLConnection;#1");
     }
 
     public void templateScanner() {
-        this.saveFile = "tpl.json";
-        System.out.println("[+] Start TemplateScanner...");
+        saveFile.set("tpl.json");
+        start("TemplateScanner");
         scan("javax.validation.ConstraintValidatorContext#buildConstraintViolationWithTemplate#(Ljava/lang/String;)Ljavax/validation/ConstraintValidatorContext/ConstraintViolationBuilder;#1");
         scan("org.hibernate.validator.internal.engine.constraintvalidation.ConstraintValidatorContextImpl#buildConstraintViolationWithTemplate#(Ljava/lang/String;)Lorg/hibernate/validator/constraintvalidation/HibernateConstraintViolationBuilder;#1");
         scan("org.springframework.web.servlet.ModelAndView#setViewName#null#1");
@@ -120,8 +207,8 @@ public class VulnUtil {
     }
 
     public void jndiScanner() {
-        this.saveFile = "jndi.json";
-        System.out.println("[+] Start JndiScanner...");
+        saveFile.set("jndi.json");
+        start("JndiScanner");
         scan("javax.naming.Context#lookup#(Ljava/lang/String;)Ljava.lang.Object;#1");
         scan("javax.naming.Context#bind#(Ljava/lang/String;Ljava/lang/Object;)V#1");
         scan("javax.naming.Context#rebind#(Ljava/lang/String;Ljava/lang/Object;)V#1");
@@ -129,8 +216,8 @@ public class VulnUtil {
     }
 
     public void ognlScanner() {
-        this.saveFile = "ognl.json";
-        System.out.println("[+] Start OgnlScanner...");
+        saveFile.set("ognl.json");
+        start("OgnlScanner");
         scan("com.opensymphony.xwork.util.TextParseUtil#translateVariables#(Ljava/lang/String;Lcom/opensymphony/xwork/util/OgnlValueStack;)Ljava/lang/String;#1");
         scan("ognl.Ognl#getValue#null#1");
         scan("ognl.Ognl#setValue#null#1");
@@ -138,8 +225,8 @@ public class VulnUtil {
     }
 
     public void deserializeScanner() {
-        this.saveFile = "deserialization.json";
-        System.out.println("[+] Start DeserializeScanner...");
+        saveFile.set("deserialization.json");
+        start("DeserializeScanner");
         scan("java.io.ObjectInput#readObject#null#1");
         scan("java.io.Externalizable#readExternal#null#1");
         scan("com.thoughtworks.xstream#fromXML#null#1");
@@ -151,16 +238,16 @@ public class VulnUtil {
     }
 
     public void fastjsonScanner() {
-        this.saveFile = "fastjson.json";
-        System.out.println("[+] Start FastJsonScanner...");
+        saveFile.set("fastjson.json");
+        start("FastJsonScanner");
         scan("com.alibaba.fastjson.JSON#parse#null#1");
         scan("com.alibaba.fastjson.JSON#parseObject#null#1");
         scan("com.alibaba.fastjson.JSON#parseArray#null#1");
     }
 
     public void expressionScanner() {
-        this.saveFile = "expression.json";
-        System.out.println("[+] Start ExpressionScanner...");
+        saveFile.set("expression.json");
+        start("ExpressionScanner");
         scan("javax.script.ScriptEngine#eval#null#1");
         scan("groovy.lang.GroovyShell#evaluate#null#1");
         // spring-cloud-gateway
@@ -168,16 +255,16 @@ public class VulnUtil {
     }
 
     public void commandInjectionScanner() {
-        this.saveFile = "cmdinject.json";
-        System.out.println("[+] Start CommandInjectionScanner...");
+        saveFile.set("cmdinject.json");
+        start("CommandInjectionScanner");
         scan("java.lang.ProcessBuilder#start#()Ljava/lang/Process;#1");
         // 虽然 ProcessBuilder#start 中会包含 java.lang.Runtime#exec，但前提时会扫描 rt.jar
         scan("java.lang.Runtime#exec#null#1");
     }
 
     public void fileSecScanner() {
-        this.saveFile = "filesec.json";
-        System.out.println("[+] Start FileSecScanner...");
+        saveFile.set("filesec.json");
+        start("FileSecScanner");
         scan("java.io.File#renameTo#(Ljava/io/File;)Z#1");
         scan("java.io.FileOutputStream#write#null#1");
         scan("java.io.FileInputStream#read#null#1");
@@ -185,15 +272,15 @@ public class VulnUtil {
     }
 
     public void zipSlipScanner() {
-        this.saveFile = "zipslip.json";
-        System.out.println("[+] Start ZipSlipScanner...");
+        saveFile.set("zipslip.json");
+        start("ZipSlipScanner");
         scan("java.util.zip.ZipEntry#init#null#1");
         scan("java.util.zip.ZipEntry#getName#null#1");
     }
 
     public void xxeScanner() {
-        this.saveFile = "xxe.json";
-        System.out.println("[+] Start XXEScanner...");
+        saveFile.set("xxe.json");
+        start("XXEScanner");
         scan("org.jdom2.input.SAXBuilder#build#null#1");
         scan("javax.xml.parsers.SAXParser#parse#null#1");
         scan("javax.xml.transform.sax.SAXTransformerFactory#newTransformerHandler#null#1");
@@ -204,16 +291,45 @@ public class VulnUtil {
         scan("javax.xml.parsers.DocumentBuilder#parse#null#1");
     }
 
+    private void start(String name) {
+        if (plannedCalls.get() == null) {
+            System.out.println("[+] Start " + name + "...");
+        }
+    }
+
     public void scan(String call) {
         scan(call, true);
     }
 
     public void scan(String call, boolean bt) {
+        if (plannedCalls.get() != null) {
+            plannedCalls.get().add(call);
+            return;
+        }
+        if (checkpoint != null) {
+            if (checkpoint.isDone(saveFile.get(), call)) {
+                System.out.println("[!] Skip Finished: " + call);
+                return;
+            }
+            checkpoint.begin(saveFile.get());
+        }
         long start = System.currentTimeMillis();
-        if (bt) {
-            saveResult(SearchUtil.getBTUpgradeCaller(call));
-        } else {
-            saveResult(SearchUtil.getBTCaller(call));
+        try {
+            if (System.getProperty("output.format", "tree").equals("graph")) {
+                saveResult(bt ? SearchUtil.getBTUpgradeCallerGraph(call) : SearchUtil.getBTCallerGraph(call));
+            } else if (bt) {
+                saveResult(SearchUtil.getBTUpgradeCaller(call));
+            } else {
+                saveResult(SearchUtil.getBTCaller(call));
+            }
+        } catch (RuntimeException | Error e) {
+            if (checkpoint != null) {
+                checkpoint.abort();
+            }
+            throw e;
+        }
+        if (checkpoint != null) {
+            checkpoint.commit(saveFile.get(), call);
         }
         long stop = System.currentTimeMillis();
         System.out.printf("[SpendTime: %sms] %s%n", (stop - start), call);
@@ -223,7 +339,17 @@ public class VulnUtil {
         if (saveDir == null) {
             PrettyPrintUtil.prettyPrint(results);
         } else {
-            PrettyPrintUtil.saveToFile(results, String.format("%s/%s", saveDir, saveFile));
+            PrettyPrintUtil.saveToFile(results, String.format("%s/%s", saveDir, saveFile.get()));
+        }
+        // 结果已输出，删除溢写的临时文件
+        ResultStore.close(results);
+    }
+
+    private void saveResult(CallGraph graph) {
+        if (saveDir == null) {
+            PrettyPrintUtil.prettyPrint(graph);
+        } else {
+            PrettyPrintUtil.saveGraphToFile(graph, String.format("%s/%s", saveDir, saveFile.get()));
         }
     }
 }
@@ -3,14 +3,59 @@ package org.observer;
 import com.google.gson.Gson;
 import jdk.internal.org.objectweb.asm.tree.ClassNode;
 import org.junit.Test;
+import org.observer.utils.AnalysisContext;
+import org.observer.utils.Archive;
+import org.observer.utils.ArchiveUtil;
+import org.observer.utils.CallGraph;
+import org.observer.utils.CallStream;
+import org.observer.utils.ClassBytesStore;
 import org.observer.utils.ClassNodeUtil;
+import org.observer.utils.ClassSummary;
+import org.observer.utils.DependencyGraph;
 import org.observer.utils.DependencyUtil;
+import org.observer.utils.DispatchTable;
+import org.observer.utils.FlowUtil;
 import org.observer.utils.HierarchyUtil;
+import org.observer.utils.JarScan;
+import org.observer.utils.JdkCallerIndex;
+import org.observer.utils.JdkIndex;
+import org.observer.utils.PathSearchUtil;
+import org.observer.utils.PrefetchUtil;
+import org.observer.utils.PrettyPrintUtil;
+import org.observer.utils.ReachUtil;
+import org.observer.utils.ResultStore;
 import org.observer.utils.SearchUtil;
+import org.observer.utils.ServerUtil;
+import org.observer.utils.ShardUtil;
+import org.observer.utils.SnapshotUtil;
+import org.observer.utils.VulnUtil;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 import java.util.regex.Matcher;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import javax.tools.ToolProvider;
 
 import static org.junit.Assert.*;
 
@@ -130,6 +175,692 @@ public class TestMain {
         assertTrue(results.contains("org/example/util/StringUtil"));
         assertFalse(results.contains("org/example/Common"));
     }
+
+    // AnalysisContext: 独立上下文之间的注册表及缓存相互隔离
+    @Test
+    public void test9() throws Exception {
+        try (AnalysisContext context = new AnalysisContext()) {
+            assertThrows(UnsupportedOperationException.class, () -> context.call(() -> DependencyUtil.getFilesByPkgName("org.example.ModuleA")));
+            Set<String> files = context.call(() -> {
+                DependencyUtil.resolve("out/artifacts/example_jar/example.jar");
+                return DependencyUtil.getFilesByPkgName("org.example.ModuleA");
+            });
+            assertEquals(Set.of("out/artifacts/example_jar/example.jar"), files);
+            context.release();
+            assertNotNull(context.call(() -> ClassNodeUtil.getClassNodeFromCache("org.example.ModuleA")));
+        }
+        assertFalse(DependencyUtil.getFilesByPkgName("org.example.ModuleA").isEmpty());
+    }
+
+    // ServerUtil: 常驻服务查询结果与直接调用一致
+    @Test
+    public void test10() throws Exception {
+        ServerUtil server = ServerUtil.start("out/artifacts/example_jar", 0);
+        try {
+            String call = "org.example.ModuleA#moduleATest1#null#1";
+            HttpRequest request = HttpRequest.newBuilder(URI.create(String.format("http://127.0.0.1:%s/upgrade?call=%s", server.getPort(), URLEncoder.encode(call, StandardCharsets.UTF_8)))).build();
+            HttpResponse<String> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertEquals("{\"org.example.ModuleA#moduleATest1#null#1\":[{\"org.example.ModuleAChildren#moduleAChildrenTest1#()V#1\":[]}]}", response.body());
+        } finally {
+            server.stop();
+        }
+    }
+
+    // SnapshotUtil: 从快照恢复的注册表与重新解析一致
+    @Test
+    public void test11() throws Exception {
+        String dir = "out/artifacts/example_jar";
+        String snapshot = Files.createTempDirectory("snapshot").resolve("registry.bin").toString();
+        String call = "org.example.ModuleA#moduleATest1#null#1";
+        Set<String> expected;
+        try (AnalysisContext context = new AnalysisContext()) {
+            expected = context.call(() -> {
+                DependencyUtil.resolveDir(dir, snapshot);
+                return DependencyUtil.getCallDependencies(call);
+            });
+        }
+        try (AnalysisContext context = new AnalysisContext()) {
+            assertTrue(context.call(() -> SnapshotUtil.load(dir, snapshot)));
+            assertEquals(expected, context.call(() -> DependencyUtil.getCallDependencies(call)));
+            assertEquals(Set.of(dir + "/example.jar"), context.call(() -> DependencyUtil.getFilesByPkgName("org.example.util.FileUtil")));
+        }
+        // 损坏的快照(字符串表长度为负数)被丢弃并重新解析
+        byte[] bytes = Files.readAllBytes(Path.of(snapshot));
+        Arrays.fill(bytes, 8, 12, (byte) 0xff);
+        Files.write(Path.of(snapshot), bytes);
+        try (AnalysisContext context = new AnalysisContext()) {
+            assertFalse(context.call(() -> SnapshotUtil.load(dir, snapshot)));
+            assertEquals(expected, context.call(() -> {
+                DependencyUtil.resolveDir(dir, snapshot);
+                return DependencyUtil.getCallDependencies(call);
+            }));
+        }
+    }
+
+    // JdkIndex: 通过 jrt 索引判断 JDK 类，不加载目标类
+    @Test
+    public void test12() throws Exception {
+        JdkIndex jdkIndex = JdkIndex.getInstance();
+        assertTrue(jdkIndex.contains("java.io.File"));
+        assertTrue(jdkIndex.contains("java.util.Map$Entry"));
+        assertFalse(jdkIndex.contains("java.io.NotExists"));
+        assertFalse(jdkIndex.contains("org.example.ModuleA"));
+        assertFalse(jdkIndex.contains("com.google.gson.Gson"));
+        assertNotNull(jdkIndex.readClass("java.lang.Runtime"));
+        assertEquals("rt.jar", DependencyUtil.getJarPathFromCache("java.lang.ProcessBuilder"));
+    }
+
+    // ArchiveUtil: 直接读取 fat jar(STORED) 及 war(DEFLATED) 中的内嵌 jar
+    @Test
+    public void test13() throws Exception {
+        Path dir = Files.createTempDirectory("nested");
+        byte[] bytes = Files.readAllBytes(Path.of("out/artifacts/example_jar/example.jar"));
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(dir.resolve("app.jar").toFile()))) {
+            JarEntry entry = new JarEntry("BOOT-INF/lib/example.jar");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(bytes.length);
+            entry.setCrc(crc.getValue());
+            out.putNextEntry(entry);
+            out.write(bytes);
+            out.closeEntry();
+        }
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(dir.resolve("app.war").toFile()))) {
+            out.putNextEntry(new JarEntry("WEB-INF/lib/example.jar"));
+            out.write(bytes);
+            out.closeEntry();
+        }
+        String call = "org.example.ModuleA#moduleATest1#null#1";
+        try (AnalysisContext context = new AnalysisContext()) {
+            Set<String> files = context.call(() -> {
+                DependencyUtil.resolveDir(dir.toString());
+                return DependencyUtil.getFilesByPkgName("org.example.ModuleA");
+            });
+            // 两个内嵌 jar 内容一致，只解析其中一个
+            assertEquals(1, files.size());
+            assertEquals(Set.of(dir.resolve("app.jar") + "!/BOOT-INF/lib/example.jar", dir.resolve("app.war") + "!/WEB-INF/lib/example.jar"), context.call(() -> DependencyUtil.getSameContentFiles(files.iterator().next())));
+            assertEquals("{\"org.example.ModuleA#moduleATest1#null#1\":[{\"org.example.ModuleAChildren#moduleAChildrenTest1#()V#1\":[]}]}", gson.toJson(context.call(() -> SearchUtil.getBTUpgradeCaller(call))));
+        }
+    }
+
+    // ClassBytesStore: 冷层压缩存储后可还原字节码
+    @Test
+    public void test14() throws Exception {
+        byte[] bytes = JdkIndex.getInstance().readClass("java.lang.Runtime");
+        ClassBytesStore store = new ClassBytesStore(1024 * 1024, true);
+        store.put("rt.jar", "java.lang.Runtime", bytes);
+        assertArrayEquals(bytes, store.get("rt.jar", "java.lang.Runtime"));
+        assertNull(store.get("rt.jar", "java.lang.System"));
+    }
+
+    // ClassSummary: 只读取类头及方法签名，结果与 ClassNode 一致
+    @Test
+    public void test15() throws Exception {
+        ClassSummary summary = ClassSummary.read(JdkIndex.getInstance().readClass("java.util.ArrayList"));
+        assertEquals("java/util/AbstractList", summary.superName);
+        assertTrue(summary.interfaces.contains("java/util/List"));
+        assertTrue(summary.hasMethod("add", "(Ljava/lang/Object;)Z"));
+        assertTrue(summary.hasMethod("add", "null"));
+        assertFalse(summary.isInterface());
+        assertTrue(ClassNodeUtil.isInterface("org.example.Common"));
+        assertTrue(HierarchyUtil.isChildren("org.example.ModuleAChildren", "org.example.ModuleA"));
+        assertFalse(HierarchyUtil.isChildren("org.example.ModuleAChildren", "org.example.Common"));
+    }
+
+    // ClassNodeUtil: 同一次搜索中相同字节码的 class 只加载一次
+    @Test
+    public void test16() {
+        Set<String> scannedClasses = new HashSet<>();
+        assertTrue(ClassNodeUtil.loadAllClassNodeFromFile("out/artifacts/example_jar/example.jar", scannedClasses).containsKey("org.example.ModuleA"));
+        assertTrue(ClassNodeUtil.loadAllClassNodeFromFile("out/artifacts/example_jar/example.jar", scannedClasses).isEmpty());
+        assertFalse(ClassNodeUtil.loadAllClassNodeFromFile("out/artifacts/example_jar/example.jar", null).isEmpty());
+    }
+
+    // CallGraph: 图结构结果可还原嵌套格式及展开路径
+    @Test
+    public void test17() {
+        String call = "org.example.ModuleA#moduleATest1#null#1";
+        CallGraph graph = SearchUtil.getBTUpgradeCallerGraph(call);
+        assertEquals(List.of(call, "org.example.ModuleAChildren#moduleAChildrenTest1#()V#1"), graph.getNodes());
+        assertEquals(gson.toJson(SearchUtil.getBTUpgradeCaller(call)), gson.toJson(graph.toTree()));
+        assertEquals(List.of(graph.getNodes()), graph.paths(10));
+        CallGraph copy = gson.fromJson(graph.toJson(), CallGraph.class);
+        assertEquals(graph.toJson(), CallGraph.fromTree(copy.toTree()).toJson());
+    }
+
+    // PathSearchUtil: 入口正向展开与 sink 回溯相遇，返回最短路径
+    @Test
+    public void test18() {
+        String entry = "org.example.ModuleAChildren#moduleAChildrenTest1#()V#1";
+        List<List<String>> paths = PathSearchUtil.search(Set.of(entry), "org.example.ModuleA#moduleATest1#null#1", 3);
+        assertEquals(List.of(List.of(entry, "org.example.ModuleA#moduleATest1#null#1")), paths);
+        assertTrue(PathSearchUtil.search(Set.of("org.example.ModuleB#test1#()V#1"), "org.example.ModuleA#moduleATest1#null#1", 3).isEmpty());
+    }
+
+    // ReachUtil: 回溯时跳过入口不可达的 caller
+    @Test
+    public void test19() throws Exception {
+        String call = "org.example.ModuleBase#test1#null#1";
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                DependencyUtil.resolve("out/artifacts/example_jar/example.jar");
+                PathSearchUtil.addEntryMethod("org.example.ModuleA", "moduleAChildrenTest1");
+                assertEquals(Set.of("org.example.ModuleAChildren#moduleAChildrenTest1#()V#1"), PathSearchUtil.getEntryPoints());
+                assertTrue(ReachUtil.isReachable("org.example.ModuleA#moduleATest1#()V#1"));
+                assertTrue(ReachUtil.isReachable("org.example.ModuleA#moduleATest1#null#1"));
+                assertFalse(ReachUtil.isReachable("org.example.ModuleB#test1#()V#1"));
+                return null;
+            });
+            System.setProperty("reach.prune", "true");
+            try {
+                assertEquals("{\"" + call + "\":[]}", gson.toJson(context.call(() -> SearchUtil.getBTCaller(call))));
+                System.setProperty("reach.collapse", "true");
+                Map<String, List> tree = context.call(() -> SearchUtil.getBTCaller(call));
+                assertEquals(2, tree.get(call).size());
+                assertTrue(gson.toJson(tree).contains(ReachUtil.unreachablePrefix + "org.example.ModuleB#test1#()V#1"));
+            } finally {
+                System.clearProperty("reach.prune");
+                System.clearProperty("reach.collapse");
+            }
+        }
+    }
+
+    // DispatchTable: 预先计算的重写/实现关系及 upgrade 接口
+    @Test
+    public void test20() throws Exception {
+        String call = "org.example.ModuleA#moduleATest1#null#1";
+        System.setProperty("cha", "true");
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                DependencyUtil.resolve("out/artifacts/example_jar/example.jar");
+                DispatchTable table = DispatchTable.current();
+                assertEquals(Set.of("org.example.ModuleBase", "org.example.ModuleA"), table.getOverriders("org.example.Common", "common", "()V"));
+                assertEquals(Set.of("org.example.ModuleA", "org.example.ModuleB"), table.getOverriders("org.example.ModuleBase", "test1", "null"));
+                assertEquals("org.example.Common", table.getUpgradeOwner("org.example.ModuleA", "common", "()V"));
+                assertEquals("", table.getUpgradeOwner("org.example.ModuleA", "test1", "()V"));
+                assertEquals("org.example.Common", DependencyUtil.getCalleeOwnerInterfaceName("org.example.ModuleB#common1#()V#1"));
+                assertEquals("{\"" + call + "\":[{\"org.example.ModuleAChildren#moduleAChildrenTest1#()V#1\":[]}]}", gson.toJson(SearchUtil.getBTUpgradeCaller(call)));
+                return null;
+            });
+        } finally {
+            System.clearProperty("cha");
+        }
+    }
+
+    // ClassNodeUtil: 首次加载后按包分区的索引从内存提供 ClassNode，不再读取 jar
+    @Test
+    public void test21() throws Exception {
+        Path jar = Files.createTempDirectory("index").resolve("example.jar");
+        Files.copy(Path.of("out/artifacts/example_jar/example.jar"), jar);
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                assertEquals(8, ClassNodeUtil.loadAllClassNodeFromFile(jar.toString()).size());
+                Files.delete(jar);
+                assertEquals(2, ClassNodeUtil.loadAllPkgClassNodeFromFile(jar.toString(), "org/example/util").size());
+                assertEquals(8, ClassNodeUtil.loadAllClassNodeFromFile(jar.toString()).size());
+                return null;
+            });
+        }
+    }
+
+    // PrefetchUtil: 后台线程预取后续 jar，等待完成后从索引提供 ClassNode
+    @Test
+    public void test22() throws Exception {
+        Path jar = Files.createTempDirectory("prefetch").resolve("example.jar");
+        Files.copy(Path.of("out/artifacts/example_jar/example.jar"), jar);
+        System.setProperty("prefetch", "true");
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                PrefetchUtil.prefetch(List.of(jar.toString()), 0);
+                PrefetchUtil.await(jar.toString());
+                Files.delete(jar);
+                assertEquals(8, ClassNodeUtil.loadAllClassNodeFromFile(jar.toString()).size());
+                return null;
+            });
+        } finally {
+            System.clearProperty("prefetch");
+        }
+    }
+
+    // DependencyGraph: 相互依赖的 jar 缩为同一分量，闭包包含所有直接及间接依赖方
+    @Test
+    public void test23() throws Exception {
+        Path dir = Files.createTempDirectory("graph");
+        // a <-> b 相互依赖，c 依赖 a
+        Map<String, String> deps = Map.of("a", "b", "b", "a", "c", "a");
+        for (Map.Entry<String, String> dep : deps.entrySet()) {
+            try (JarOutputStream out = new JarOutputStream(new FileOutputStream(dir.resolve(dep.getKey() + ".jar").toFile()))) {
+                out.putNextEntry(new JarEntry("META-INF/maven/g/" + dep.getKey() + "/pom.xml"));
+                out.write(String.format("<project><modelVersion>4.0.0</modelVersion><groupId>g</groupId><artifactId>%s</artifactId><dependencies><dependency><groupId>g</groupId><artifactId>%s</artifactId></dependency></dependencies></project>", dep.getKey(), dep.getValue()).getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+                out.putNextEntry(new JarEntry("g/" + dep.getKey() + "/A.class"));
+                out.write(dep.getKey().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                DependencyUtil.resolveDir(dir.toString());
+                DependencyGraph graph = DependencyGraph.current();
+                Set<String> all = Set.of(dir.resolve("a.jar").toString(), dir.resolve("b.jar").toString(), dir.resolve("c.jar").toString());
+                assertEquals(2, graph.getComponentCount());
+                assertEquals(all, graph.toFiles(graph.getDependents(dir.resolve("a.jar").toString())));
+                assertEquals(all, graph.toFiles(graph.getDependents(dir.resolve("b.jar").toString())));
+                assertEquals(Set.of(dir.resolve("c.jar").toString()), graph.toFiles(graph.getDependents(dir.resolve("c.jar").toString())));
+                return null;
+            });
+        }
+    }
+
+    // JarRefIndex: 搜索范围为常量池引用 owner 的 jar，不再包含全部缺失 pom.xml 的 jar
+    @Test
+    public void test24() throws Exception {
+        Path dir = Files.createTempDirectory("scope");
+        Files.copy(Path.of("out/artifacts/example_jar/example.jar"), dir.resolve("example.jar"));
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(dir.resolve("other.jar").toFile()))) {
+            out.putNextEntry(new JarEntry("other/Other.class"));
+            out.write(JdkIndex.getInstance().readClass("java.util.zip.CRC32"));
+            out.closeEntry();
+        }
+        String call = "org.example.ModuleA#moduleATest1#null#1";
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                DependencyUtil.resolveDir(dir.toString());
+                assertEquals(Set.of(dir.resolve("example.jar").toString()), DependencyUtil.getCallDependencies(call));
+                System.setProperty("scope.mode", "pom");
+                try {
+                    assertEquals(Set.of(dir.resolve("example.jar").toString(), dir.resolve("other.jar").toString()), DependencyUtil.getCallDependencies(call));
+                } finally {
+                    System.clearProperty("scope.mode");
+                }
+                return null;
+            });
+        }
+    }
+
+    // JarScan: 单次遍历得到的 class entry、包分组及摘要与原有方式一致
+    @Test
+    public void test25() throws Exception {
+        String file = "out/artifacts/example_jar/example.jar";
+        try (AnalysisContext context = new AnalysisContext(); Archive archive = ArchiveUtil.open(file)) {
+            context.call(() -> {
+                JarScan scan = JarScan.of(file, archive);
+                assertEquals(8, scan.classEntries.size());
+                assertEquals(2, scan.partitions.get("org/example/util/").size());
+                assertEquals(List.of("org.example"), scan.getPkgGroups());
+                assertEquals(ArchiveUtil.digest(archive), scan.digest);
+                assertSame(scan, JarScan.of(file, archive));
+                return null;
+            });
+        }
+    }
+
+    // ShardUtil: 两个 worker 进程分片搜索，合并结果与单进程一致
+    @Test
+    public void test26() throws Exception {
+        String call = "org.example.ModuleA#moduleATest1#null#1";
+        ShardUtil shards = ShardUtil.start("out/artifacts/example_jar", 2);
+        try {
+            assertEquals("{\"" + call + "\":[{\"org.example.ModuleAChildren#moduleAChildrenTest1#()V#1\":[]}]}", gson.toJson(shards.getContext().call(() -> SearchUtil.getBTUpgradeCaller(call))));
+        } finally {
+            shards.stop();
+        }
+    }
+
+    // FlowUtil: 常量参数的调用点不再展开，new 的对象及 this 视为可控
+    @Test
+    public void test27() throws Exception {
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                DependencyUtil.resolve("out/artifacts/example_jar/example.jar");
+                assertFalse(FlowUtil.isArgumentFlow("org.example.ModuleA#common#()V#1", "java.io.FileOutputStream#write#([B)V#1"));
+                assertFalse(FlowUtil.isArgumentFlow("org.example.ModuleA#common#()V#1", "java.io.PrintStream#println#null#1"));
+                assertTrue(FlowUtil.isArgumentFlow("org.example.ModuleA#test1#()V#1", "java.io.File#renameTo#(Ljava/io/File;)Z#1"));
+                assertTrue(FlowUtil.isArgumentFlow("org.example.ModuleAChildren#moduleAChildrenTest1#()V#1", "org.example.ModuleA#moduleATest1#()V#1"));
+                return null;
+            });
+        }
+        System.setProperty("flow.prune", "true");
+        try (AnalysisContext context = new AnalysisContext()) {
+            String call = "java.io.FileOutputStream#write#([B)V#1";
+            assertEquals("{\"" + call + "\":[{\"[const] org.example.ModuleA#common#()V#1\":[]}]}", gson.toJson(context.call(() -> {
+                DependencyUtil.resolve("out/artifacts/example_jar/example.jar");
+                return SearchUtil.getBTCaller(call);
+            })));
+        } finally {
+            System.clearProperty("flow.prune");
+        }
+    }
+
+    // JdkCallerIndex: JDK 内部 caller 从索引获取，索引按 JDK 版本保存至 jdk.index.dir
+    @Test
+    public void test28() throws Exception {
+        Path dir = Files.createTempDirectory("jdk-index");
+        System.setProperty("jdk.index.dir", dir.toString());
+        System.setProperty("jdk.scan", "true");
+        try (AnalysisContext context = new AnalysisContext()) {
+            String call = "java.lang.ProcessBuilder#directory#(Ljava/io/File;)Ljava/lang/ProcessBuilder;#1";
+            List<String> callers = context.call(() -> {
+                DependencyUtil.resolve("out/artifacts/example_jar/example.jar");
+                assertTrue(DependencyUtil.getCallDependencies(call).contains(ClassNodeUtil.jdkFileName));
+                return SearchUtil.getCallerFromFile(ClassNodeUtil.jdkFileName, call);
+            });
+            assertTrue(callers.contains("java.lang.Runtime#exec#([Ljava/lang/String;[Ljava/lang/String;Ljava/io/File;)Ljava/lang/Process;#1"));
+            assertTrue(Files.exists(dir.resolve(JdkCallerIndex.getJdkId() + ".idx")));
+        } finally {
+            System.clearProperty("jdk.scan");
+            System.clearProperty("jdk.index.dir");
+        }
+    }
+
+    // Checkpoint: 续扫时跳过已完成的 sink，丢弃中断的 sink 写入的结果
+    @Test
+    public void test29() throws Exception {
+        String dir = Files.createTempDirectory("vuln").resolve("out").toString();
+        Path result = Path.of(dir, "result.json");
+        String first = "java.io.File#renameTo#(Ljava/io/File;)Z#1";
+        String second = "java.io.FileOutputStream#write#([B)V#1";
+        System.setProperty("checkpoint", "true");
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                DependencyUtil.resolve("out/artifacts/example_jar/example.jar");
+                VulnUtil vulnUtil = new VulnUtil(dir, "result.json");
+                vulnUtil.init();
+                vulnUtil.scan(first);
+                // sink 结束后恢复 callerCache 开关
+                assertFalse(context.isCallerCacheEnabled());
+                return null;
+            });
+        } finally {
+            System.clearProperty("checkpoint");
+        }
+        assertTrue(Files.exists(Path.of(dir, ".checkpoint.json")));
+        String committed = Files.readString(result);
+        assertTrue(committed.contains(first));
+        // 模拟中断的 sink 已写入部分结果
+        Files.writeString(result, "{\"partial", StandardOpenOption.APPEND);
+        System.setProperty("vuln.resume", "true");
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                DependencyUtil.resolve("out/artifacts/example_jar/example.jar");
+                VulnUtil vulnUtil = new VulnUtil(dir, "result.json");
+                vulnUtil.init();
+                vulnUtil.scan(first);
+                assertEquals(committed + "{\"partial", Files.readString(result));
+                vulnUtil.scan(second);
+                return null;
+            });
+        } finally {
+            System.clearProperty("vuln.resume");
+        }
+        String resumed = Files.readString(result);
+        assertTrue(resumed.startsWith(committed));
+        assertFalse(resumed.contains("partial"));
+        assertTrue(resumed.substring(committed.length()).contains(second));
+    }
+
+    // CallStream: 回溯过程中逐条发布边及路径，取得所需数量后取消搜索
+    @Test
+    public void test30() throws Exception {
+        String call = "org.example.ModuleA#moduleATest1#null#1";
+        assertEquals(List.of(List.of(call, "org.example.ModuleAChildren#moduleAChildrenTest1#()V#1")), CallStream.paths(call, true).take(20));
+        String sink = "java.io.PrintStream#println#null#1";
+        List<CallStream.Edge> edges = CallStream.edges(sink, true).take(Integer.MAX_VALUE);
+        assertEquals(SearchUtil.getBTUpgradeCallerGraph(sink).getEdges().size(), edges.size());
+        assertTrue(edges.size() > 1);
+        List<CallStream.Edge> first = CallStream.edges(sink, true).take(1);
+        assertEquals(1, first.size());
+        assertEquals(edges.get(0), first.get(0));
+    }
+
+    // VulnUtil: 并发执行各扫描器，结果与顺序执行一致
+    @Test
+    public void test31() throws Exception {
+        Path dir = Files.createTempDirectory("vuln");
+        for (String threads : List.of("1", "4")) {
+            System.setProperty("vuln.threads", threads);
+            System.setProperty("vuln.scanner.heap", "1");
+            try (AnalysisContext context = new AnalysisContext()) {
+                context.call(() -> {
+                    DependencyUtil.resolve("out/artifacts/example_jar/example.jar");
+                    new VulnUtil(dir.resolve(threads).toString()).all();
+                    return null;
+                });
+            } finally {
+                System.clearProperty("vuln.threads");
+                System.clearProperty("vuln.scanner.heap");
+            }
+        }
+        List<String> files;
+        try (var stream = Files.list(dir.resolve("1"))) {
+            files = stream.map(path -> path.getFileName().toString()).filter(name -> !name.startsWith(".")).sorted().toList();
+        }
+        assertTrue(files.contains("filesec.json"));
+        for (String file : files) {
+            assertEquals(Files.readString(dir.resolve("1").resolve(file)), Files.readString(dir.resolve("4").resolve(file)));
+        }
+    }
+
+    // ResultStore: 子树溢写至磁盘后，结果及流式输出与内存中的结果一致
+    @Test
+    public void test32() throws Exception {
+        String call = "java.io.PrintStream#println#null#1";
+        String expected = gson.toJson(SearchUtil.getBTUpgradeCaller(call));
+        System.setProperty("spill.threshold", "0.000001");
+        System.setProperty("spill.min.nodes", "0");
+        try {
+            long files = countSpillFiles();
+            Map<String, List> tree = SearchUtil.getBTUpgradeCaller(call);
+            assertEquals(expected, gson.toJson(tree));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ResultStore.write(tree, out);
+            assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+            // 结果输出后删除临时文件
+            assertEquals(files + 1, countSpillFiles());
+            ResultStore.close(tree);
+            assertEquals(files, countSpillFiles());
+            // 小子树不溢写，也不创建临时文件
+            System.clearProperty("spill.min.nodes");
+            assertEquals(expected, gson.toJson(SearchUtil.getBTUpgradeCaller(call)));
+            assertEquals(files, countSpillFiles());
+        } finally {
+            System.clearProperty("spill.threshold");
+            System.clearProperty("spill.min.nodes");
+        }
+    }
+
+    private static long countSpillFiles() throws IOException {
+        try (Stream<Path> stream = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return stream.filter(path -> path.getFileName().toString().startsWith("result") && path.getFileName().toString().endsWith(".spill")).count();
+        }
+    }
+
+    // HierarchyUtil: 方法解析表自底向上合并，多层继承时返回最顶层的声明类型
+    @Test
+    public void test33() {
+        assertEquals("org.example.Common", HierarchyUtil.getMatchSuperName("org.example.ModuleAChildren", "common", "()V", true));
+        assertEquals("org.example.Common", HierarchyUtil.getMatchSuperName("org.example.ModuleAChildren", "common1", "null", false));
+        assertEquals("org.example.ModuleBase", HierarchyUtil.getMatchSuperName("org.example.ModuleAChildren", "test1", "()V", false));
+        assertEquals("org.example.ModuleA", HierarchyUtil.getMatchSuperName("org.example.ModuleAChildren", "moduleATest1", "null", false));
+        assertNull(HierarchyUtil.getMatchSuperName("org.example.ModuleAChildren", "moduleATest1", "null", true));
+        assertNull(HierarchyUtil.getMatchSuperName("org.example.ModuleAChildren", "common", "(I)V", false));
+        assertEquals("org.example.Common", DependencyUtil.getCalleeOwnerInterfaceName("org.example.ModuleB#common#()V#1"));
+    }
+
+    // FlowUtil: 只在 sink 层剪枝，上层参数为常量的调用点仍可能经由 receiver 的字段传入数据
+    @Test
+    public void test34() throws Exception {
+        Path jar = compileJar("flow", Map.of(
+                "Sink", "public class Sink { String cmd; public void m(String s) throws Exception { Runtime.getRuntime().exec(cmd); } }",
+                "Caller", "public class Caller { public void call(Sink sink) throws Exception { sink.m(\"x\"); } }"));
+        String call = "java.lang.Runtime#exec#(Ljava/lang/String;)Ljava/lang/Process;#1";
+        System.setProperty("flow.prune", "true");
+        try (AnalysisContext context = new AnalysisContext()) {
+            assertEquals("{\"" + call + "\":[{\"flow.Sink#m#(Ljava/lang/String;)V#1\":[{\"flow.Caller#call#(Lflow/Sink;)V#1\":[]}]}]}", gson.toJson(context.call(() -> {
+                DependencyUtil.resolve(jar.toString());
+                return SearchUtil.getBTCaller(call);
+            })));
+        } finally {
+            System.clearProperty("flow.prune");
+        }
+    }
+
+    // HierarchyUtil: 菱形继承中共同父接口的方法解析表被两条路径合并
+    @Test
+    public void test35() throws Exception {
+        Path jar = compileJar("diamond", Map.of(
+                "I0", "public interface I0 { void a(); }",
+                "I1", "public interface I1 extends I0 { }",
+                "I2", "public interface I2 extends I0 { void b(); }",
+                "C", "public class C implements I1, I2 { public void a() { } public void b() { } }"));
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                DependencyUtil.resolve(jar.toString());
+                assertEquals("diamond.I0", HierarchyUtil.getMatchSuperName("diamond.C", "a", "()V", true));
+                assertEquals("diamond.I2", HierarchyUtil.getMatchSuperName("diamond.C", "b", "()V", true));
+                assertEquals("diamond.I0", HierarchyUtil.getMatchSuperName("diamond.I2", "a", "null", true));
+                return null;
+            });
+        }
+    }
+
+    // SearchUtil: 非白名单 jdk 接口的停止节点与之前的搜索无关，同一上下文中多次查询结果一致
+    @Test
+    public void test36() throws Exception {
+        Path jar = compileJar("stop", Map.of(
+                "Task", "public class Task implements Runnable { public void run() { try { Runtime.getRuntime().exec(\"id\"); } catch (Exception e) { } } }"));
+        String call = "java.lang.Runtime#exec#(Ljava/lang/String;)Ljava/lang/Process;#1";
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                DependencyUtil.resolve(jar.toString());
+                String expected = "{\"" + call + "\":[{\"stop.Task#run#()V#1\":[]}]}";
+                assertEquals(expected, gson.toJson(SearchUtil.getBTUpgradeCaller(call)));
+                assertEquals(expected, gson.toJson(SearchUtil.getBTUpgradeCaller(call)));
+                return null;
+            });
+        }
+    }
+
+    // ResultStore: 溢写的子树流式过滤，多层溢写时子树只写入一次，结果与内存中一致
+    @Test
+    public void test37() throws Exception {
+        String call = "java.io.PrintStream#println#null#1";
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                SearchUtil.addAllowPrefix("org.example");
+                DependencyUtil.resolve("out/artifacts/example_jar/example.jar");
+                PrettyPrintUtil.addFilter("ModuleA");
+                Map<String, List> tree = SearchUtil.getBTUpgradeCaller(call);
+                String expected = gson.toJson(PrettyPrintUtil.filter(tree));
+                assertTrue(expected.contains("ModuleA"));
+                System.setProperty("spill.threshold", "0.000001");
+                System.setProperty("spill.min.nodes", "0");
+                try {
+                    Map<String, List> spilled = SearchUtil.getBTUpgradeCaller(call);
+                    assertEquals(gson.toJson(tree), gson.toJson(spilled));
+                    assertEquals(expected, gson.toJson(PrettyPrintUtil.filter(spilled)));
+                    ResultStore.close(spilled);
+                } finally {
+                    System.clearProperty("spill.threshold");
+                    System.clearProperty("spill.min.nodes");
+                }
+                return null;
+            });
+        }
+    }
+
+    // ClassNodeUtil: jar 加载失败时其中的 class 不标记为已搜索，其他 jar 中相同的 class 仍会被搜索
+    @Test
+    public void test38() throws Exception {
+        Path jar = compileJar("dedup", Map.of("A", "public class A { }"));
+        Path broken = jar.resolveSibling("broken.jar");
+        Path copy = jar.resolveSibling("copy.jar");
+        byte[] bytes = Files.readAllBytes(jar.getParent().resolve("dedup/A.class"));
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(broken.toFile()))) {
+            out.putNextEntry(new JarEntry("dedup/A.class"));
+            out.write(bytes);
+            out.closeEntry();
+            out.putNextEntry(new JarEntry("dedup/B.class"));
+            out.write("broken".getBytes());
+            out.closeEntry();
+        }
+        Files.copy(jar, copy);
+        try (AnalysisContext context = new AnalysisContext()) {
+            context.call(() -> {
+                Set<String> scannedClasses = new HashSet<>();
+                assertTrue(ClassNodeUtil.loadAllClassNodeFromFile(broken.toString(), scannedClasses).isEmpty());
+                assertEquals(Set.of("dedup.A"), ClassNodeUtil.loadAllClassNodeFromFile(jar.toString(), scannedClasses).keySet());
+                assertTrue(ClassNodeUtil.loadAllClassNodeFromFile(copy.toString(), scannedClasses).isEmpty());
+                return null;
+            });
+        }
+    }
+
+    // ServerUtil: 查询结果及缓存与之前的查询无关，先查询 jdk 接口停止节点不影响后续查询
+    @Test
+    public void test39() throws Exception {
+        Path jar = compileJar("query", Map.of(
+                "Task", "public class Task implements Runnable { public void run() { try { Runtime.getRuntime().exec(\"id\"); } catch (Exception e) { } } }"));
+        ServerUtil server = ServerUtil.start(jar.getParent().toString(), 0);
+        try {
+            String task = "query.Task#run#()V#1";
+            String call = "java.lang.Runtime#exec#(Ljava/lang/String;)Ljava/lang/Process;#1";
+            HttpClient client = HttpClient.newHttpClient();
+            for (String[] query : new String[][]{{task, "{\"" + task + "\":[]}"}, {call, "{\"" + call + "\":[{\"" + task + "\":[]}]}"}}) {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(String.format("http://127.0.0.1:%s/upgrade?call=%s", server.getPort(), URLEncoder.encode(query[0], StandardCharsets.UTF_8)))).build();
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                assertEquals(200, response.statusCode());
+                assertEquals(query[1], response.body());
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    // PathSearchUtil: 回溯得到的 lambda 所在方法(fDesc 为 null)与正向展开的入口相遇，path.depth 每次查询时读取
+    @Test
+    public void test40() throws Exception {
+        Path jar = compileJar("lambda", Map.of(
+                "L", "public class L { public void entry() { Runnable r = () -> { try { Runtime.getRuntime().exec(\"id\"); } catch (Exception e) { } }; r.run(); } }"));
+        String entry = "lambda.L#entry#()V#1";
+        String sink = "java.lang.Runtime#exec#(Ljava/lang/String;)Ljava/lang/Process;#1";
+        System.setProperty("path.depth", "2");
+        try (AnalysisContext context = new AnalysisContext()) {
+            assertEquals(List.of(List.of(entry, sink)), context.call(() -> {
+                DependencyUtil.resolve(jar.toString());
+                return PathSearchUtil.search(Set.of(entry), sink, 1);
+            }));
+            System.setProperty("path.depth", "0");
+            assertTrue(context.call(() -> PathSearchUtil.search(Set.of(entry), sink, 1)).isEmpty());
+        } finally {
+            System.clearProperty("path.depth");
+        }
+    }
+
+    // 编译 pkg 下的类并打包为 jar，sources 为 类名 -> 不含 package 声明的源码
+    private static Path compileJar(String pkg, Map<String, String> sources) throws Exception {
+        Path dir = Files.createTempDirectory(pkg);
+        Path src = Files.createDirectories(dir.resolve(pkg));
+        List<String> args = new ArrayList<>(List.of("-d", dir.toString()));
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            Path file = src.resolve(source.getKey() + ".java");
+            Files.writeString(file, "package " + pkg + "; " + source.getValue());
+            args.add(file.toString());
+        }
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, args.toArray(new String[0])));
+        Path jar = dir.resolve(pkg + ".jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar.toFile()))) {
+            for (String name : sources.keySet()) {
+                out.putNextEntry(new JarEntry(pkg + "/" + name + ".class"));
+                out.write(Files.readAllBytes(dir.resolve(pkg).resolve(name + ".class")));
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
     /*
         java.io.OutputStream !>> org.apache.catalina.connector.CoyoteOutputStream
      */